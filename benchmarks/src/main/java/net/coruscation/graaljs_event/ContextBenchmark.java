@@ -0,0 +1,57 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to create a ready to use {@link EContext}: the js context, its event
+ * loop thread and the evaluated bootstrap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextBenchmark {
+
+    @Param({ "false", "true" })
+    boolean sharedEngine;
+
+    EContext.Builder builder;
+    EContext created;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        builder = EContext.newBuilder(Context.newBuilder("js"))
+                .sharedEngine(sharedEngine);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() {
+        if (created != null) {
+            created.shutdown();
+            created = null;
+        }
+    }
+
+    @Benchmark
+    public EContext create() {
+        created = builder.build();
+        return created;
+    }
+}
@@ -0,0 +1,95 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round-trip latency of handing work to the event loop and waiting for the
+ * result, which is dominated by the thread hand-off rather than the script,
+ * and the throughput of queueing messages to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvalBenchmark {
+
+    static final int MESSAGES = 1_000;
+
+    EContext eContext;
+    Source source;
+    int received;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        eContext = new EContext(Context.newBuilder("js"));
+        source = Source.create("js", "1 + 1");
+        eContext.eval(() -> {
+            eContext.getEventLoop().putMessageHandler("benchmark", data -> received++);
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        eContext.shutdown();
+    }
+
+    /**
+     * {@link EContext#eval(String)}, the source is parsed on every call.
+     */
+    @Benchmark
+    public Value evalString() {
+        return eContext.eval("1 + 1");
+    }
+
+    /**
+     * {@link EContext#eval(Source)} with a cached source.
+     */
+    @Benchmark
+    public Value evalSource() {
+        return eContext.eval(source);
+    }
+
+    /**
+     * The hand-off alone, without entering js.
+     */
+    @Benchmark
+    public int evalSupplier() {
+        return eContext.eval(() -> 2);
+    }
+
+    /**
+     * {@link EContext#sendMessage} from a host thread to a host handler, the
+     * queueing cost without js or cloning.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @OperationsPerInvocation(MESSAGES)
+    public int sendMessage() throws InterruptedException, ExecutionException {
+        for (int i = 0; i < MESSAGES; i++) {
+            eContext.sendMessage("benchmark", i);
+        }
+        // tasks run in order, this completes after the last message
+        return eContext.evalAsync(() -> received).get();
+    }
+}
@@ -0,0 +1,112 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message passing between a parent context and an echoing Worker.
+ *
+ * {@code payloadBytes} scales the size of each message: an object holding a
+ * {@code Uint8Array} of that many bytes, so the numbers include the
+ * structured clone on both sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagingBenchmark {
+
+    static final int MESSAGES = 1_000;
+
+    @Param({ "0", "64", "4096", "262144" })
+    int payloadBytes;
+
+    /**
+     * See {@link EContext.Builder#messageBatching(int)}, 1 disables it.
+     */
+    @Param({ "1", "64" })
+    int batchSize;
+
+    EContext eContext;
+    Path workerScript;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workerScript = Files.createTempFile("echo_worker", ".js");
+        Files.writeString(workerScript, """
+                self.onmessage = (e => {
+                    postMessage(e.data);
+                })
+                """);
+        eContext = EContext.newBuilder(Context.newBuilder("js").allowIO(true))
+                .messageBatching(batchSize)
+                .build();
+        eContext.eval("""
+                globalThis.worker = new Worker(%s);
+                globalThis.payload = { id: 0, bytes: new Uint8Array(%d) };
+                globalThis.echo = function (n) {
+                    return new Promise(resolve => {
+                        let left = n;
+                        worker.onmessage = () => {
+                            if (--left === 0) {
+                                resolve();
+                            }
+                        };
+                        for (let i = 0; i < n; i++) {
+                            worker.postMessage(payload);
+                        }
+                    });
+                };
+                """.formatted(jsString(workerScript.toString()), payloadBytes));
+    }
+
+    private static String jsString(String s) {
+        return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        eContext.shutdown();
+        Files.deleteIfExists(workerScript);
+    }
+
+    /**
+     * One message to the worker and its echo back, one at a time.
+     */
+    @Benchmark
+    @BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void pingPong() throws InterruptedException, ExecutionException {
+        eContext.evalAsync("echo(1)").get();
+    }
+
+    /**
+     * {@code MESSAGES} messages to the worker and back, pipelined.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void roundTrips() throws InterruptedException, ExecutionException {
+        eContext.evalAsync("echo(" + MESSAGES + ")").get();
+    }
+}
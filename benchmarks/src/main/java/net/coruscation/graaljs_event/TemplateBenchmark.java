@@ -0,0 +1,93 @@
+package net.coruscation.graaljs_event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to get a ready to use {@link EContext} that also evaluated an
+ * application bootstrap script of {@code functions} functions: built from
+ * scratch with its own engine, stamped out of an {@link EContextTemplate}
+ * sharing one engine, or taken from the template's prewarmed contexts.
+ * Prewarmed contexts are only refilled while the previous one is shut down,
+ * so that case shows the best case of a burst no larger than the pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({ "BUILD", "TEMPLATE", "PREWARMED" })
+    String strategy;
+
+    @Param({ "2000" })
+    int functions;
+
+    Source bootstrap;
+    EContext.Builder builder;
+    EContextTemplate template;
+    EContext created;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        var script = new StringBuilder("globalThis.app = {};\n");
+        for (int i = 0; i < functions; i++) {
+            script.append("app.f").append(i).append(" = function (x) { return x * ").append(i)
+                    .append(" + String(x).length; };\n");
+        }
+        script.append("for (const key in app) { app[key](1); }\n");
+        bootstrap = Source.create("js", script.toString());
+        switch (strategy) {
+            case "BUILD" -> builder = EContext.newBuilder(Context.newBuilder("js"));
+            case "TEMPLATE" -> template = EContextTemplate.create(EContext.newBuilder(Context.newBuilder("js")),
+                    List.of(bootstrap), 0);
+            case "PREWARMED" -> template = EContextTemplate.create(EContext.newBuilder(Context.newBuilder("js")),
+                    List.of(bootstrap), 4);
+            default -> throw new IllegalArgumentException(strategy);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() {
+        if (created != null) {
+            created.shutdown();
+            created = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        if (template != null) {
+            template.close();
+        }
+    }
+
+    @Benchmark
+    public EContext create() {
+        if (template != null) {
+            created = template.newContext();
+        } else {
+            created = builder.build();
+            created.eval(bootstrap);
+        }
+        return created;
+    }
+}
@@ -0,0 +1,95 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the timer backends on a debounce pattern: every new timer cancels
+ * the previous one, so almost all timers are cancelled before they fire.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerBenchmark {
+
+    static final int TIMERS = 10_000;
+
+    @Param({ "EXECUTOR", "HASHED_WHEEL" })
+    EContext.TimerBackend backend;
+
+    EContext eContext;
+    Source debounce;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        eContext = EContext.newBuilder(Context.newBuilder("js"))
+                .timers(backend)
+                .build();
+        debounce = Source.create("js", """
+                (function () {
+                    let timer = null;
+                    for (let i = 0; i < %d; i++) {
+                        clearTimeout(timer);
+                        timer = setTimeout(() => {}, 50 + (i %% 100));
+                    }
+                    clearTimeout(timer);
+                })()
+                """.formatted(TIMERS));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        if (eContext != null) {
+            eContext.close();
+        }
+    }
+
+    /**
+     * Schedule and cancel through the timer backend only.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TIMERS)
+    public int scheduleCancel() {
+        return eContext.eval(() -> {
+            var timers = eContext.getEventLoop().getTimers();
+            Timers.Timeout previous = null;
+            for (int i = 0; i < TIMERS; i++) {
+                if (previous != null) {
+                    previous.cancel();
+                }
+                previous = timers.schedule(() -> {
+                }, TimeUnit.MILLISECONDS.toNanos(50 + i % 100));
+            }
+            previous.cancel();
+            return timers.pending();
+        });
+    }
+
+    /**
+     * The same pattern through setTimeout/clearTimeout from js.
+     */
+    @Benchmark
+    @OperationsPerInvocation(TIMERS)
+    public void jsDebounce() {
+        eContext.eval(debounce);
+    }
+}
@@ -0,0 +1,76 @@
+package net.coruscation.graaljs_event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for {@link WorkerPool#map} to run a CPU bound function over
+ * {@code inputs} inputs on {@code workers} contexts. With {@code skewed}
+ * every 16th input costs 16 times as much, which round robin dealing alone
+ * would leave on a few contexts; work stealing spreads it. Scaling is
+ * measured against {@code workers = 1}, up to the number of cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkerPoolBenchmark {
+
+    @Param({ "1", "2", "4", "8" })
+    int workers;
+
+    @Param({ "false", "true" })
+    boolean skewed;
+
+    @Param({ "1000" })
+    int inputs;
+
+    Source script;
+    List<Integer> input;
+    WorkerPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        script = Source.create("js", """
+                function work(n) {
+                    let x = 0;
+                    for (let i = 0; i < n; i++) {
+                        x = (x * 31 + i) % 1000003;
+                    }
+                    return x;
+                }
+                """);
+        input = IntStream.range(0, inputs).map(i -> skewed && i % 16 == 0 ? 16 * 20000 : 20000).boxed().toList();
+        pool = WorkerPool.create(EContext.newBuilder(Context.newBuilder("js")).sharedEngine(true), workers);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    @Benchmark
+    public long map() {
+        // count() alone would not wait for the results
+        return pool.map(script, "work", input).mapToLong(x -> (Integer) x).sum();
+    }
+}
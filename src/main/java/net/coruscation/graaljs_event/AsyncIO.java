@@ -0,0 +1,442 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+
+/**
+ * Non-blocking file and socket I/O behind the {@code io} global, see
+ * {@link EContext.Builder#asyncIO}.
+ *
+ * Files are read and written with {@link AsynchronousFileChannel}, TCP
+ * connections use {@link AsynchronousSocketChannel}. Unix domain sockets have
+ * no asynchronous channel, their blocking reads and writes run on virtual
+ * threads instead. Either way the event loop only starts an operation: its
+ * completion is posted back as a macrotask, which settles the script's
+ * promise. Pending operations keep the context from being quiescent.
+ *
+ * Operations are rejected if the js context itself is not allowed to read
+ * host files, so {@code io} does not reach further than the context's
+ * {@link org.graalvm.polyglot.io.IOAccess}.
+ *
+ * Only used on the event loop thread, except for the completion of
+ * operations.
+ */
+final class AsyncIO {
+
+    static final int DEFAULT_READ_SIZE = 64 * 1024;
+
+    private final EContext eContext;
+    private final boolean hostIO;
+    // Operations started and not yet settled
+    private int pending = 0;
+    // Open connections, added by I/O threads once connected
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    AsyncIO(EContext eContext, Context jsContext) {
+        this.eContext = eContext;
+        this.hostIO = isHostIOAllowed(jsContext);
+    }
+
+    /**
+     * Whether {@code jsContext} may read host files. The polyglot API has no
+     * getter for a context's IO access, so this loads an empty script, which
+     * fails unless it is allowed, or {@code load} is disabled.
+     */
+    private static boolean isHostIOAllowed(Context jsContext) {
+        var load = jsContext.getBindings("js").getMember("load");
+        if (load == null || !load.canExecute()) {
+            return false;
+        }
+        try {
+            load.execute(ProbeHolder.FILE.toString());
+            return true;
+        } catch (PolyglotException e) {
+            return false;
+        }
+    }
+
+    private static final class ProbeHolder {
+        static final Path FILE;
+
+        static {
+            try {
+                FILE = Files.createTempFile("graaljs-io-probe", ".js");
+                FILE.toFile().deleteOnExit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    boolean isHostIOAllowed() {
+        return this.hostIO;
+    }
+
+    int pending() {
+        return this.pending;
+    }
+
+    /**
+     * Call {@code resolve} with the result of {@code operation}, converted by
+     * {@code toJs} on the event loop, or {@code reject} with an error message.
+     */
+    <T> void settle(CompletableFuture<T> operation, Value resolve, Value reject, Function<T, Object> toJs) {
+        this.pending++;
+        operation.whenComplete((result, error) -> {
+            try {
+                this.eContext.eventLoop.post(() -> {
+                    this.pending--;
+                    if (error != null) {
+                        reject.execute(message(error));
+                    } else {
+                        resolve.execute(toJs.apply(result));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the context is closed, and the promise with it
+            }
+        });
+    }
+
+    private static String message(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error.getMessage() == null ? error.getClass().getSimpleName()
+                : error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+
+    /**
+     * The content of a file.
+     */
+    CompletableFuture<ByteBuffer> readFile(Path path) {
+        var future = new CompletableFuture<ByteBuffer>();
+        AsynchronousFileChannel channel = null;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + path);
+            }
+            var buffer = ByteBuffer.allocateDirect((int) size);
+            readFully(channel, buffer, future);
+        } catch (IOException | RuntimeException e) {
+            // nothing was started, the channel is still ours to close
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void readFully(AsynchronousFileChannel channel, ByteBuffer buffer,
+            CompletableFuture<ByteBuffer> future) {
+        if (!buffer.hasRemaining()) {
+            closeQuietly(channel);
+            future.complete(buffer.flip());
+            return;
+        }
+        channel.read(buffer, buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                if (read < 0) {
+                    // the file shrank since it was opened
+                    closeQuietly(channel);
+                    future.complete(buffer.flip().slice());
+                } else {
+                    readFully(channel, buffer, future);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                closeQuietly(channel);
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Write {@code data} to a file, replacing its content unless
+     * {@code append}. Completes with the number of bytes written.
+     */
+    CompletableFuture<Integer> writeFile(Path path, ByteBuffer data, boolean append) {
+        var future = new CompletableFuture<Integer>();
+        AsynchronousFileChannel channel = null;
+        try {
+            // AsynchronousFileChannel does not support APPEND
+            channel = append
+                    ? AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                    : AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+            var position = append ? channel.size() : 0;
+            writeFully(channel, data, position, data.remaining(), future);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void writeFully(AsynchronousFileChannel channel, ByteBuffer data, long position, int size,
+            CompletableFuture<Integer> future) {
+        if (!data.hasRemaining()) {
+            closeQuietly(channel);
+            future.complete(size);
+            return;
+        }
+        channel.write(data, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                writeFully(channel, data, position + written, size, future);
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                closeQuietly(channel);
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Connect to a TCP port, or to a Unix domain socket when {@code path} is
+     * not null.
+     */
+    CompletableFuture<Connection> connect(String path, String host, int port) {
+        CompletableFuture<Connection> future;
+        if (path != null) {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                    try {
+                        channel.connect(UnixDomainSocketAddress.of(path));
+                    } catch (IOException | RuntimeException e) {
+                        channel.close();
+                        throw e;
+                    }
+                    return new UnixConnection(channel);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, VirtualThreads.executor);
+        } else {
+            future = new CompletableFuture<>();
+            try {
+                var channel = AsynchronousSocketChannel.open();
+                var connected = future;
+                channel.connect(new InetSocketAddress(host, port), null, new CompletionHandler<Void, Void>() {
+                    @Override
+                    public void completed(Void result, Void attachment) {
+                        connected.complete(new TcpConnection(channel));
+                    }
+
+                    @Override
+                    public void failed(Throwable e, Void attachment) {
+                        closeQuietly(channel);
+                        connected.completeExceptionally(e);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+        return future.thenApply(connection -> {
+            this.connections.add(connection);
+            // connected after closeAll()
+            if (this.closed) {
+                close(connection);
+            }
+            return connection;
+        });
+    }
+
+    void close(Connection connection) {
+        this.connections.remove(connection);
+        connection.close();
+    }
+
+    /**
+     * Close every open connection, on shutdown. Returns how many there were.
+     */
+    int closeAll() {
+        this.closed = true;
+        var connections = List.copyOf(this.connections);
+        for (var connection : connections) {
+            close(connection);
+        }
+        return connections.size();
+    }
+
+    /**
+     * Read up to {@code maxBytes}. Completes with {@code null} at the end of
+     * the stream.
+     */
+    static CompletableFuture<ByteBuffer> read(Connection connection, int maxBytes) {
+        var buffer = ByteBuffer.allocateDirect(Math.max(maxBytes, 1));
+        return connection.read(buffer).thenApply(read -> {
+            if (read < 0) {
+                return null;
+            }
+            buffer.flip();
+            // do not pin a mostly empty buffer to the script's ArrayBuffer
+            return read == buffer.capacity() ? buffer : ByteBuffer.allocateDirect(read).put(buffer).flip();
+        });
+    }
+
+    /**
+     * Write all of {@code data}, completes with the number of bytes written.
+     */
+    static CompletableFuture<Integer> write(Connection connection, ByteBuffer data) {
+        var size = data.remaining();
+        return writeFully(connection, data).thenApply(ignored -> size);
+    }
+
+    private static CompletableFuture<Void> writeFully(Connection connection, ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return connection.write(data).thenCompose(written -> writeFully(connection, data));
+    }
+
+    static ByteBuffer encode(String text) {
+        var encoded = StandardCharsets.UTF_8.encode(text);
+        return ByteBuffer.allocateDirect(encoded.remaining()).put(encoded).flip();
+    }
+
+    static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    /**
+     * A socket handed to scripts. Only one read and one write may be
+     * pending at a time, webworker.js queues the others.
+     */
+    sealed interface Connection permits TcpConnection, UnixConnection {
+        CompletableFuture<Integer> read(ByteBuffer buffer);
+
+        CompletableFuture<Integer> write(ByteBuffer buffer);
+
+        void close();
+    }
+
+    private record TcpConnection(AsynchronousSocketChannel channel) implements Connection {
+        @Override
+        public CompletableFuture<Integer> read(ByteBuffer buffer) {
+            var future = new CompletableFuture<Integer>();
+            try {
+                this.channel.read(buffer, future, Completion.instance());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Integer> write(ByteBuffer buffer) {
+            var future = new CompletableFuture<Integer>();
+            try {
+                this.channel.write(buffer, future, Completion.instance());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(this.channel);
+        }
+    }
+
+    private record UnixConnection(SocketChannel channel) implements Connection {
+        @Override
+        public CompletableFuture<Integer> read(ByteBuffer buffer) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return this.channel.read(buffer);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, VirtualThreads.executor);
+        }
+
+        @Override
+        public CompletableFuture<Integer> write(ByteBuffer buffer) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return this.channel.write(buffer);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, VirtualThreads.executor);
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(this.channel);
+        }
+    }
+
+    // Completes the attached future
+    private static final class Completion<V> implements CompletionHandler<V, CompletableFuture<V>> {
+        private static final Completion<?> INSTANCE = new Completion<>();
+
+        @SuppressWarnings("unchecked")
+        static <V> Completion<V> instance() {
+            return (Completion<V>) INSTANCE;
+        }
+
+        @Override
+        public void completed(V result, CompletableFuture<V> future) {
+            future.complete(result);
+        }
+
+        @Override
+        public void failed(Throwable e, CompletableFuture<V> future) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static class VirtualThreads {
+        static final Executor executor = command -> Thread.ofVirtual()
+                .name("EContext io").start(command);
+    }
+}
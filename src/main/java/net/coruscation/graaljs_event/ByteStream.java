@@ -0,0 +1,352 @@
+package net.coruscation.graaljs_event;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.graalvm.polyglot.Value;
+
+/**
+ * Host side of a {@code StreamChannel}: a bounded ring buffer of bytes from a
+ * {@code WritableStream} to a {@code ReadableStream}, which may be owned by
+ * different contexts.
+ *
+ * A write copies as much of its chunk as fits into the ring and completes
+ * once all of it did, so a producer that outpaces its consumer waits instead
+ * of piling up data: however much is streamed, at most {@code capacity}
+ * bytes are in flight. A read takes whatever the ring holds and waits while
+ * it is empty, so the consumer works on the first chunk while the producer
+ * is still writing the next. A waiting side is woken by a task posted to the
+ * event loop of the context that currently owns it.
+ *
+ * Either end can be transferred with {@code postMessage} while it is not
+ * locked to a reader or writer; it is detached and adopted like a
+ * {@link ChannelPort}. Promises of an end are only settled on its owner's
+ * event loop.
+ */
+final class ByteStream {
+
+    static final int DEFAULT_CAPACITY = 1024 * 1024;
+    // room for the longest UTF-8 sequence, see textLength()
+    private static final int MIN_CAPACITY = 4;
+
+    // guarded by this
+    private final ByteBuffer ring;
+    private int head = 0;
+    private int size = 0;
+    private boolean closed = false;
+    // why the stream was aborted, cancelled or torn down
+    private String error = null;
+
+    final End readable = new End(true);
+    final End writable = new End(false);
+
+    private ByteStream(int capacity) {
+        this.ring = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * A stream of {@code capacity} bytes, both ends owned by {@code owner}.
+     * Called on its event loop.
+     */
+    static ByteStream create(EContext owner, int capacity) {
+        var stream = new ByteStream(Math.max(capacity, MIN_CAPACITY));
+        stream.readable.adopt(owner);
+        stream.writable.adopt(owner);
+        return stream;
+    }
+
+    /**
+     * Bytes that can be written without waiting.
+     */
+    synchronized int desiredSize() {
+        return this.error != null || this.closed ? 0 : this.ring.capacity() - this.size;
+    }
+
+    /**
+     * Resolve with the next chunk, a direct buffer, or a string when
+     * {@code text}; with {@code null} once the writer closed and everything
+     * was read. Called on the reader's event loop.
+     */
+    void read(Value resolve, Value reject, boolean text) {
+        synchronized (this) {
+            if (this.readable.pending != null) {
+                throw new IllegalStateException("A read is already pending");
+            }
+            this.readable.pending = new Pending(resolve, reject, null, text);
+        }
+        pumpRead(this.readable.owner);
+    }
+
+    /**
+     * Resolve once all of {@code data} was written into the ring. Called on
+     * the writer's event loop.
+     */
+    void write(ByteBuffer data, Value resolve, Value reject) {
+        synchronized (this) {
+            if (this.writable.pending != null) {
+                throw new IllegalStateException("A write is already pending");
+            }
+            if (this.closed && this.error == null) {
+                throw new IllegalStateException("The stream is closed");
+            }
+            this.writable.pending = new Pending(resolve, reject, data, false);
+        }
+        pumpWrite();
+    }
+
+    /**
+     * The writer is done, the reader gets what is left and then the end of
+     * the stream.
+     */
+    synchronized void close() {
+        if (this.closed || this.error != null) {
+            return;
+        }
+        this.closed = true;
+        this.writable.finish();
+        this.readable.wake();
+    }
+
+    /**
+     * Error the stream, from either end: data still in the ring is dropped,
+     * pending and later reads and writes fail with {@code reason}.
+     */
+    synchronized void abort(String reason) {
+        if (this.error != null) {
+            return;
+        }
+        this.error = reason;
+        this.size = 0;
+        this.readable.wake();
+        this.writable.wake();
+        this.readable.finish();
+        this.writable.finish();
+    }
+
+    private void pumpRead(EContext eContext) {
+        Pending pending;
+        Object result;
+        synchronized (this) {
+            pending = this.readable.pending;
+            if (pending == null) {
+                return;
+            }
+            if (this.error != null) {
+                result = this.error;
+            } else if (this.size > 0) {
+                var length = pending.text() ? textLength() : this.size;
+                if (length == 0) {
+                    // only part of a char so far
+                    return;
+                }
+                result = take(length);
+                this.writable.wake();
+            } else if (this.closed) {
+                result = null;
+                this.readable.finish();
+            } else {
+                return;
+            }
+            this.readable.pending = null;
+        }
+        if (result instanceof String reason) {
+            pending.reject().execute(reason);
+        } else if (result instanceof ByteBuffer chunk) {
+            pending.resolve().execute(pending.text() ? AsyncIO.decode(chunk)
+                    : eContext.getStructuredClone().wrapBuffer(chunk));
+        } else {
+            pending.resolve().execute((Object) null);
+        }
+    }
+
+    private void pumpWrite() {
+        Pending pending;
+        String failure = null;
+        synchronized (this) {
+            pending = this.writable.pending;
+            if (pending == null) {
+                return;
+            }
+            if (this.error != null) {
+                failure = this.error;
+            } else {
+                if (put(pending.data()) > 0) {
+                    this.readable.wake();
+                }
+                if (pending.data().hasRemaining()) {
+                    return;
+                }
+            }
+            this.writable.pending = null;
+        }
+        if (failure != null) {
+            pending.reject().execute(failure);
+        } else {
+            pending.resolve().execute();
+        }
+    }
+
+    // guarded by this
+    private ByteBuffer take(int length) {
+        var chunk = ByteBuffer.allocateDirect(length);
+        var first = Math.min(length, this.ring.capacity() - this.head);
+        chunk.put(this.ring.duplicate().position(this.head).limit(this.head + first));
+        chunk.put(this.ring.duplicate().position(0).limit(length - first));
+        this.head = (this.head + length) % this.ring.capacity();
+        this.size -= length;
+        if (this.size == 0) {
+            this.head = 0;
+        }
+        return chunk.flip();
+    }
+
+    // guarded by this
+    private int put(ByteBuffer data) {
+        var capacity = this.ring.capacity();
+        var length = Math.min(capacity - this.size, data.remaining());
+        var tail = (this.head + this.size) % capacity;
+        var first = Math.min(length, capacity - tail);
+        this.ring.duplicate().position(tail).put(data.slice(data.position(), first));
+        this.ring.duplicate().position(0).put(data.slice(data.position() + first, length - first));
+        data.position(data.position() + length);
+        this.size += length;
+        return length;
+    }
+
+    /**
+     * How much of the ring holds whole UTF-8 sequences, so a text chunk does
+     * not end in the middle of a char. Everything once the writer closed,
+     * a truncated char is then decoded as a replacement char.
+     */
+    // guarded by this
+    private int textLength() {
+        if (this.closed) {
+            return this.size;
+        }
+        for (int i = this.size - 1; i >= Math.max(this.size - MIN_CAPACITY, 0); i--) {
+            var b = this.ring.get((this.head + i) % this.ring.capacity());
+            if ((b & 0xc0) == 0x80) {
+                continue;
+            }
+            // the lead byte of the last char tells its length
+            var length = (b & 0xe0) == 0xc0 ? 2 : (b & 0xf0) == 0xe0 ? 3 : (b & 0xf8) == 0xf0 ? 4 : 1;
+            return i + length <= this.size ? this.size : i;
+        }
+        // not UTF-8, leave it to the decoder
+        return this.size;
+    }
+
+    private record Pending(Value resolve, Value reject, ByteBuffer data, boolean text) {
+    }
+
+    /**
+     * One end of the stream, registered with the context that owns it.
+     */
+    final class End {
+        final boolean reading;
+        private final AtomicBoolean wakeScheduled = new AtomicBoolean(false);
+        // null while the end is being transferred
+        private volatile EContext owner;
+        // the operation waiting for the other end, guarded by the stream
+        private Pending pending;
+        // once finished the end no longer keeps its owner busy, guarded by the stream
+        private boolean finished = false;
+        // Only used on the owner's event loop
+        private boolean locked = false;
+
+        private End(boolean reading) {
+            this.reading = reading;
+        }
+
+        ByteStream stream() {
+            return ByteStream.this;
+        }
+
+        boolean isOwnedBy(EContext eContext) {
+            return this.owner == eContext;
+        }
+
+        void lock(boolean locked) {
+            this.locked = locked;
+            if (!locked) {
+                Pending pending;
+                synchronized (ByteStream.this) {
+                    pending = this.pending;
+                    this.pending = null;
+                }
+                if (pending != null) {
+                    pending.reject().execute(this.reading ? "The reader was released" : "The writer was released");
+                }
+            }
+        }
+
+        /**
+         * Whether {@code eContext} can transfer this end.
+         */
+        boolean isTransferableFrom(EContext eContext) {
+            return this.owner == eContext && !this.locked;
+        }
+
+        /**
+         * Called on the owner's event loop when the end is serialized for a
+         * transfer.
+         */
+        void detach() {
+            var owner = this.owner;
+            if (owner != null) {
+                owner.streams.remove(this);
+            }
+            this.owner = null;
+        }
+
+        /**
+         * Called on {@code eContext}'s event loop when a transferred end is
+         * deserialized.
+         */
+        void adopt(EContext eContext) {
+            synchronized (ByteStream.this) {
+                this.owner = eContext;
+                if (!this.finished) {
+                    eContext.streams.add(this);
+                }
+            }
+        }
+
+        // guarded by the stream
+        private void finish() {
+            this.finished = true;
+            var owner = this.owner;
+            if (owner != null) {
+                owner.streams.remove(this);
+            }
+        }
+
+        // guarded by the stream
+        private void wake() {
+            var owner = this.owner;
+            if (owner == null || this.pending == null) {
+                // an end with an operation pending is locked, it can not be in transfer
+                return;
+            }
+            if (this.wakeScheduled.compareAndSet(false, true)) {
+                try {
+                    owner.getEventLoop().post(() -> {
+                        this.wakeScheduled.set(false);
+                        if (this.owner != owner) {
+                            return;
+                        }
+                        if (this.reading) {
+                            pumpRead(owner);
+                        } else {
+                            pumpWrite();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the owner is closing and aborts the stream along with it
+                    this.wakeScheduled.set(false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.graalvm.polyglot.Value;
+
+/**
+ * Host side of a {@code MessagePort}, one end of a {@code MessageChannel}.
+ *
+ * A message posted on a port goes to its peer's inbox, a lock-free queue,
+ * and is delivered on the event loop of the context that currently owns the
+ * peer. Two workers holding the ends of a channel therefore talk directly,
+ * without going through the context that created it.
+ *
+ * A port can be transferred with {@code postMessage}: it is detached from its
+ * owner when the message is serialized and adopted by the receiving context
+ * when it is deserialized. Messages arriving in between wait in the inbox,
+ * as do messages for a port that was not started yet (by setting
+ * {@code onmessage} or calling {@code start()}).
+ */
+final class ChannelPort {
+
+    private final ConcurrentLinkedQueue<StructuredClone.Message> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean deliveryScheduled = new AtomicBoolean(false);
+    private ChannelPort peer;
+    // null while the port is being transferred
+    private volatile EContext owner;
+    private volatile boolean started = false;
+    private volatile boolean closed = false;
+    // The js MessagePort wrapping this port, only used on the owner's event loop
+    private Value jsPort;
+
+    private ChannelPort(EContext owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Create the two entangled ports of a channel, owned by {@code owner}.
+     * Called on its event loop.
+     */
+    static ChannelPort[] createPair(EContext owner) {
+        var port1 = new ChannelPort(owner);
+        var port2 = new ChannelPort(owner);
+        port1.peer = port2;
+        port2.peer = port1;
+        owner.ports.add(port1);
+        owner.ports.add(port2);
+        return new ChannelPort[] { port1, port2 };
+    }
+
+    boolean isOwnedBy(EContext eContext) {
+        return this.owner == eContext;
+    }
+
+    /**
+     * The js wrapper of this port in {@code eContext}, if it has one.
+     */
+    Value jsPort(EContext eContext) {
+        return this.owner == eContext ? this.jsPort : null;
+    }
+
+    void bind(EContext eContext, Value jsPort) {
+        if (this.owner == eContext) {
+            this.jsPort = jsPort;
+        }
+    }
+
+    void post(StructuredClone.Message message) {
+        if (this.closed) {
+            return;
+        }
+        this.peer.inbox.add(message);
+        this.peer.scheduleDelivery();
+    }
+
+    void start() {
+        this.started = true;
+        scheduleDelivery();
+    }
+
+    /**
+     * Called on the owner's event loop when the port is serialized for a
+     * transfer.
+     */
+    void detach() {
+        var owner = this.owner;
+        if (owner != null) {
+            owner.ports.remove(this);
+        }
+        this.owner = null;
+        this.jsPort = null;
+        this.started = false;
+    }
+
+    /**
+     * Called on {@code eContext}'s event loop when a transferred port is
+     * deserialized.
+     */
+    void adopt(EContext eContext) {
+        this.owner = eContext;
+        eContext.ports.add(this);
+        scheduleDelivery();
+    }
+
+    /**
+     * Close both ends of the channel, pending messages are discarded.
+     */
+    void close() {
+        closeOne();
+        this.peer.closeOne();
+    }
+
+    private void closeOne() {
+        this.closed = true;
+        this.inbox.clear();
+        var owner = this.owner;
+        if (owner != null) {
+            owner.ports.remove(this);
+        }
+    }
+
+    private void scheduleDelivery() {
+        var owner = this.owner;
+        if (owner == null || !this.started || this.closed || this.inbox.isEmpty()) {
+            return;
+        }
+        if (this.deliveryScheduled.compareAndSet(false, true)) {
+            try {
+                owner.getEventLoop().post(() -> deliver(owner));
+            } catch (RejectedExecutionException e) {
+                // the owner is closing and closes this port along with it
+            }
+        }
+    }
+
+    /**
+     * Deliver one message per task, like messages of a worker.
+     */
+    private void deliver(EContext eContext) {
+        if (this.owner != eContext || this.closed) {
+            // transferred away in the meantime, the new owner takes over
+            this.deliveryScheduled.set(false);
+            scheduleDelivery();
+            return;
+        }
+        try {
+            var message = this.inbox.poll();
+            if (message != null) {
+                var clone = eContext.getStructuredClone();
+                this.jsPort.invokeMember("_dispatch", clone.deserialize(message.data()), message.timeStamp(),
+                        clone.deserializePorts(message));
+            }
+        } finally {
+            this.deliveryScheduled.set(false);
+            scheduleDelivery();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package net.coruscation.graaljs_event;
+
+import java.util.List;
+
+/**
+ * What closing an {@link EContext} reclaimed, see
+ * {@link EContext#close(java.time.Duration)}.
+ *
+ * @param timersCancelled   timers, and other delayed tasks, that had not run
+ * @param tasksDrained      queued tasks and messages that still ran while
+ *                          draining
+ * @param tasksDiscarded    queued tasks and messages that never ran
+ * @param portsClosed       message ports and unfinished stream ends the
+ *                          context owned
+ * @param connectionsClosed sockets opened through the {@code io} global
+ * @param processWorkers    workers in child processes that were disconnected
+ * @param workers           the reports of its in process workers' contexts,
+ *                          closed along with it
+ */
+public record CloseReport(int timersCancelled, long tasksDrained, int tasksDiscarded, int portsClosed,
+        int connectionsClosed, int processWorkers, List<CloseReport> workers) {
+
+    /**
+     * Number of contexts closed: this one and its workers', recursively.
+     */
+    public int contexts() {
+        return 1 + this.workers.stream().mapToInt(CloseReport::contexts).sum();
+    }
+}
@@ -1,23 +1,47 @@
 package net.coruscation.graaljs_event;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.frame.FrameInstance;
 import com.oracle.truffle.api.frame.FrameInstanceVisitor;
@@ -25,8 +49,12 @@ import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.js.nodes.function.EvalNode;
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.ResourceLimits;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
 import org.graalvm.polyglot.proxy.ProxyExecutable;
 
 abstract class SimpleJsFunc implements ProxyExecutable {
@@ -53,16 +81,21 @@ class JsSetTimeout extends SimpleJsFunc {
             throw new IllegalArgumentException();
         }
         var fn = arguments[0];
-        var delay = arguments.length >= 2 ? arguments[1].asLong() : 0;
-        final Object[] fnArgs = arguments.length > 2 ? Arrays.copyOfRange(arguments, 3, arguments.length)
+        var timers = eContext.getEventLoop().getJsTimers();
+        var delay = arguments.length >= 2 ? timers.delayNanos(arguments[1]) : 0;
+        final Object[] fnArgs = arguments.length > 2 ? Arrays.copyOfRange(arguments, 2, arguments.length)
                 : new Object[0];
-        var future = executor.schedule(() -> {
+        var timeout = timers.setTimeout(() -> {
             fn.executeVoid(fnArgs);
-        }, delay, TimeUnit.MILLISECONDS);
-        return jsContext.asValue(future);
+        }, delay);
+        return jsContext.asValue(timeout);
     }
 }
 
+/**
+ * Backs {@code clearTimeout}, {@code clearInterval} and
+ * {@code clearImmediate}. Anything but a timer is ignored, like browsers do.
+ */
 class JsClearTimeout extends SimpleJsFunc {
 
     public JsClearTimeout(EContext eContext) {
@@ -71,14 +104,9 @@ class JsClearTimeout extends SimpleJsFunc {
 
     @Override
     public Object execute(Value... arguments) {
-        if (arguments.length != 1 && arguments[0].isHostObject()) {
-            throw new IllegalArgumentException();
-        }
-        var task = arguments[0].asHostObject();
-        if (task instanceof ScheduledFuture t) {
-            t.cancel(false);
-        } else {
-            throw new IllegalArgumentException();
+        if (arguments.length >= 1 && arguments[0].isHostObject()
+                && arguments[0].asHostObject() instanceof Timers.Timeout t) {
+            t.cancel();
         }
         return null;
     }
@@ -96,33 +124,105 @@ class JsSetInterval extends SimpleJsFunc {
             throw new IllegalArgumentException();
         }
         var fn = arguments[0];
-        var delay = arguments.length >= 2 ? arguments[1].asLong() : 0;
-        final Object[] fnArgs = arguments.length > 2 ? Arrays.copyOfRange(arguments, 3, arguments.length)
+        var timers = eContext.getEventLoop().getJsTimers();
+        var period = arguments.length >= 2 ? timers.delayNanos(arguments[1]) : 0;
+        final Object[] fnArgs = arguments.length > 2 ? Arrays.copyOfRange(arguments, 2, arguments.length)
                 : new Object[0];
-        var future = executor.scheduleAtFixedRate(() -> {
+        var timeout = timers.setInterval(() -> {
+            fn.executeVoid(fnArgs);
+        }, period);
+        return jsContext.asValue(timeout);
+    }
+}
+
+class JsSetImmediate extends SimpleJsFunc {
+
+    public JsSetImmediate(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        if (arguments.length < 1 || !arguments[0].canExecute()) {
+            throw new IllegalArgumentException();
+        }
+        var fn = arguments[0];
+        final Object[] fnArgs = Arrays.copyOfRange(arguments, 1, arguments.length);
+        var immediate = eContext.getEventLoop().getJsTimers().setImmediate(() -> {
             fn.executeVoid(fnArgs);
-        }, 0, delay, TimeUnit.MILLISECONDS);
-        return jsContext.asValue(future);
+        });
+        return jsContext.asValue(immediate);
+    }
+}
+
+/**
+ * {@code performance.now()}: milliseconds since the context was created,
+ * from {@link System#nanoTime()}, with sub-millisecond precision.
+ */
+class JsPerformanceNow extends SimpleJsFunc {
+
+    public JsPerformanceNow(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        return (System.nanoTime() - eContext.startNanos) / 1e6;
     }
 }
 
 class JsNewWorkerContext extends SimpleJsFunc {
 
     static class Worker {
+        private static final AtomicLong ids = new AtomicLong();
+
         Value workerJsObj;
         EContext sourceEventContext;
+        // null for a worker in another process
         EContext workerEventContext;
+        ProcessWorker process;
+        boolean terminated = false;
+        // also the key of its metrics, e.g. "Worker(worker.js#3)"
+        final String name;
+        final EventLoopMetrics.Traffic traffic;
 
-        public Worker(EContext refereeEventContext, EContext workerEventContext, Value workerJsObj) {
+        public Worker(EContext refereeEventContext, EContext workerEventContext, Value workerJsObj, String script) {
             this.workerEventContext = workerEventContext;
             this.sourceEventContext = refereeEventContext;
             this.workerJsObj = workerJsObj;
+            this.name = "Worker(" + script + "#" + ids.incrementAndGet() + ")";
+            this.traffic = refereeEventContext.metrics.worker(this);
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
         }
 
         public Value getWorkerJsObj() {
             return workerJsObj;
         }
 
+        /**
+         * Stop the worker and release its context. Must be called on the
+         * event loop of the context that created the worker.
+         */
+        void terminate() {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            sourceEventContext.workers.remove(this);
+            sourceEventContext.getEventLoop().getHandlers().remove(this);
+            sourceEventContext.metrics.removeHandler(this);
+            sourceEventContext.metrics.removeWorker(this);
+            sourceEventContext.setMailbox(this, null);
+            if (process != null) {
+                process.close();
+            } else {
+                sourceEventContext.getOptions().getWorkerManager().terminate(workerEventContext);
+            }
+        }
     }
 
     public JsNewWorkerContext(EContext eContext) {
@@ -146,49 +246,129 @@ class JsNewWorkerContext extends SimpleJsFunc {
         try {
             Path p = urlOrPath.startsWith("file:/") ? Paths.get(new URI(urlOrPath)).toAbsolutePath().normalize()
                     : Path.of(urlOrPath).normalize();
-            if (!p.toFile().exists() || p.toFile().isDirectory()) {
-                throw new RuntimeException("Js file does not exist: '" + p.toString() + "'");
+            var inProcess = transportOf(options, this.eContext.getOptions().getWorkerTransport())
+                    == EContext.WorkerTransport.IN_PROCESS;
+            var workerMailbox = this.eContext.getOptions().getWorkerMailbox();
+            var inboxMailbox = mailboxConfig(options, workerMailbox);
+            if (!inProcess) {
+                this.eContext.getOptions().checkProcessWorker(inboxMailbox);
             }
+            var workerSource = SourceCache.get(p, isEsmModule);
+
+            // may build and bootstrap a context, which is not the parent's own work
+            EContext workerEContext = inProcess
+                    ? this.eContext.getEventLoop().untimed(this.eContext.getOptions().getWorkerManager()::acquire)
+                    : null;
 
-            EContext workerEContext = new EContext(this.eContext.getContextBuilder());
+            Worker worker = new Worker(this.eContext, workerEContext, workerJsObj, p.getFileName().toString());
+            this.eContext.workers.add(worker);
 
-            Worker worker = new Worker(this.eContext, workerEContext, workerJsObj);
+            if (workerMailbox != null) {
+                this.eContext.setMailbox(worker, workerMailbox);
+            }
+
+            var batchSize = this.eContext.getOptions().getMaxBatchSize();
+            Consumer<StructuredClone.Message> toWorker;
+            if (inProcess) {
+                if (inboxMailbox != null) {
+                    workerEContext.setMailbox("self", inboxMailbox);
+                }
+                var batcher = batchSize > 1
+                        ? new MessageBatcher(this.eContext.getEventLoop(), workerEContext, "self", batchSize)
+                        : null;
+                toWorker = batcher != null ? batcher::add : message -> workerEContext.sendMessage("self", message);
+            } else {
+                var sourceEventContext = this.eContext;
+                worker.process = ProcessWorker.start(this.eContext.getOptions(), p, isEsmModule, inboxMailbox,
+                        worker.name, message -> {
+                            try {
+                                sourceEventContext.sendMessage(worker, message);
+                                worker.traffic.received(message.size());
+                            } catch (Mailbox.MailboxFullException e) {
+                                // posted from another process, there is no caller to throw to
+                            }
+                        }, error -> {
+                            try {
+                                sourceEventContext.getEventLoop().post(() -> {
+                                    if (!worker.terminated) {
+                                        worker.terminate();
+                                        workerJsObj.invokeMember("_onerror", error);
+                                    }
+                                });
+                            } catch (RejectedExecutionException e) {
+                                // the owner is closing and terminates its workers itself
+                            }
+                        }, () -> {
+                            try {
+                                sourceEventContext.getEventLoop().post(worker::terminate);
+                            } catch (RejectedExecutionException e) {
+                                // the owner is closing and terminates its workers itself
+                            }
+                        });
+                toWorker = worker.process::send;
+            }
 
+            var sourceClone = this.eContext.getStructuredClone();
             ProxyExecutable sourcePostMessage = (Value... args) -> {
-                var data = args[0];
-                workerEContext.sendMessage("self", data.asString());
+                var transfer = args.length > 1 ? args[1] : null;
+                var message = sourceClone.serialize(args[0], transfer);
+                try {
+                    toWorker.accept(message);
+                } catch (Mailbox.MailboxFullException e) {
+                    // thrown as an Error by webworker.js
+                    return e.getMessage();
+                }
+                worker.traffic.sent(message.size());
                 return null;
             };
             workerJsObj.putMember("_postMessage", sourcePostMessage);
+            ProxyExecutable terminate = (Value... args) -> {
+                worker.terminate();
+                return null;
+            };
+            workerJsObj.putMember("_terminate", terminate);
 
             // Setup callback for the module starting a new Worker
             this.eContext.getEventLoop().putMessageHandler(worker, (data) -> {
-                workerJsObj.invokeMember("_onmessage", data);
+                if (data instanceof StructuredClone.Batch batch) {
+                    workerJsObj.invokeMember("_onmessages", sourceClone.deserializeBatch(batch));
+                    return;
+                }
+                var message = (StructuredClone.Message) data;
+                workerJsObj.invokeMember("_onmessage", sourceClone.deserialize(message.data()), message.timeStamp(),
+                        sourceClone.deserializePorts(message));
             });
 
-            var workerSourceBuilder = Source.newBuilder("js", p.toUri().toURL());
-            if (isEsmModule) {
-                workerSourceBuilder = workerSourceBuilder.mimeType("application/javascript+module");
-            }
-            var workerSource = workerSourceBuilder.build();
-
-            workerEContext.evalAsync(() -> {
-                Thread.currentThread().setName("JS Worker Thread " + p.getFileName());
-                Context workerJsContext = workerEContext.getJsContext();
-                workerJsContext.eval("js", "globalThis.self=globalThis");
-                workerJsContext.getBindings("js").getMember("_setup_worker").execute();
-                workerEContext.getEventLoop().putMessageHandler("self", (Object data) -> {
-                    workerJsContext.getBindings("js").getMember("_onmessage").execute(data);
+            if (inProcess) {
+                var toParent = batchSize > 1
+                        ? new MessageBatcher(workerEContext.getEventLoop(), worker.sourceEventContext, worker, batchSize)
+                        : null;
+                workerEContext.evalAsync(() -> {
+                    workerEContext.getEventLoop().setThreadName("JS Worker Thread " + p.getFileName());
+                    workerEContext.setupWorker(message -> {
+                        if (toParent != null) {
+                            toParent.add(message);
+                        } else {
+                            worker.sourceEventContext.sendMessage(worker, message);
+                        }
+                        worker.traffic.received(message.size());
+                    });
+                    workerEContext.getJsContext().eval(workerSource);
                 });
-
-                Value bindings = workerJsContext.getBindings("js");
-                ProxyExecutable workerPostMessage = (Value... args) -> {
-                    worker.sourceEventContext.sendMessage(worker, args[0].asString());
-                    return null;
-                };
-                bindings.putMember("_postMessage", workerPostMessage);
-                workerJsContext.eval(workerSource);
-            });
+                // a worker cancelled for exceeding a limit is gone, tell its owner
+                workerEContext.whenTerminated().whenComplete((result, error) -> {
+                    var violation = workerEContext.getResourceViolation();
+                    if (violation == null) {
+                        return;
+                    }
+                    worker.sourceEventContext.getEventLoop().post(() -> {
+                        if (!worker.terminated) {
+                            worker.terminate();
+                            workerJsObj.invokeMember("_onerror", violation.message());
+                        }
+                    });
+                });
+            }
             return this.jsContext.asValue(worker);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -196,6 +376,50 @@ class JsNewWorkerContext extends SimpleJsFunc {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * The transport of a worker: {@code options.transport}, either
+     * {@code 'in-process'} or {@code 'process'}, otherwise the builder's
+     * default.
+     */
+    static EContext.WorkerTransport transportOf(Value options, EContext.WorkerTransport defaults) {
+        if (options == null || !options.hasMember("transport") || options.getMember("transport").isNull()) {
+            return defaults;
+        }
+        var transport = options.getMember("transport").asString();
+        return switch (transport) {
+            case "in-process" -> EContext.WorkerTransport.IN_PROCESS;
+            case "process" -> EContext.WorkerTransport.PROCESS;
+            default -> throw new IllegalArgumentException("Unknown worker transport: " + transport);
+        };
+    }
+
+    /**
+     * The mailbox of the worker's inbox: {@code options.mailbox}, e.g.
+     * {@code { mailbox: { capacity: 100, overflow: 'drop-oldest' } }},
+     * otherwise the builder's default.
+     */
+    static Mailbox.Config mailboxConfig(Value options, Mailbox.Config defaults) {
+        if (options == null || !options.hasMember("mailbox")) {
+            return defaults;
+        }
+        var mailbox = options.getMember("mailbox");
+        if (mailbox.isNull()) {
+            return defaults;
+        }
+        if (!mailbox.hasMember("capacity") || !mailbox.getMember("capacity").fitsInInt()) {
+            throw new IllegalArgumentException("mailbox.capacity must be an integer");
+        }
+        var overflow = mailbox.hasMember("overflow") ? mailbox.getMember("overflow").asString() : "block";
+        var policy = switch (overflow) {
+            case "block" -> Mailbox.Policy.BLOCK;
+            case "drop-oldest" -> Mailbox.Policy.DROP_OLDEST;
+            case "drop-newest" -> Mailbox.Policy.DROP_NEWEST;
+            case "fail" -> Mailbox.Policy.FAIL;
+            default -> throw new IllegalArgumentException("Unknown mailbox overflow policy: " + overflow);
+        };
+        return Mailbox.Config.bounded(mailbox.getMember("capacity").asInt(), policy);
+    }
 }
 
 class jsSendMessage extends SimpleJsFunc {
@@ -222,16 +446,248 @@ class jsSendMessage extends SimpleJsFunc {
 
 }
 
+/**
+ * Backs {@code SharedArrayBuffer} and {@code Atomics} in webworker.js, called
+ * as {@code _sharedMemory(op, region, ...args)}.
+ */
+class JsSharedMemory extends SimpleJsFunc {
+
+    public JsSharedMemory(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        if (arguments.length < 2 || !arguments[0].isString()) {
+            throw new IllegalArgumentException();
+        }
+        var op = arguments[0].asString();
+        if (op.equals("allocate")) {
+            return new SharedMemory(arguments[1].asInt());
+        }
+        if (!arguments[1].isHostObject() || !(arguments[1].asHostObject() instanceof SharedMemory region)) {
+            throw new IllegalArgumentException();
+        }
+        if (op.equals("buffer")) {
+            if (!this.jsContext.asValue(region.buffer).hasBufferElements()) {
+                throw new IllegalStateException(
+                        "SharedArrayBuffer requires host buffer access, see HostAccess.Builder.allowBufferAccess");
+            }
+            return region.buffer;
+        }
+        var byteIndex = arguments[2].asInt();
+        try {
+            return switch (op) {
+                case "load" -> region.load(byteIndex);
+                case "store" -> region.store(byteIndex, arguments[3].asInt());
+                case "add" -> region.add(byteIndex, arguments[3].asInt());
+                case "sub" -> region.sub(byteIndex, arguments[3].asInt());
+                case "and" -> region.and(byteIndex, arguments[3].asInt());
+                case "or" -> region.or(byteIndex, arguments[3].asInt());
+                case "xor" -> region.xor(byteIndex, arguments[3].asInt());
+                case "exchange" -> region.exchange(byteIndex, arguments[3].asInt());
+                case "compareExchange" -> region.compareExchange(byteIndex, arguments[3].asInt(),
+                        arguments[4].asInt());
+                case "wait" -> region.await(byteIndex, arguments[3].asInt(), arguments[4].asDouble());
+                case "notify" -> region.wake(byteIndex, arguments[3].asInt());
+                default -> throw new IllegalArgumentException(op);
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
+
+/**
+ * Backs {@code MessageChannel} and {@code MessagePort} in webworker.js, called
+ * as {@code _messagePort(op, port, ...args)}, see {@link ChannelPort}.
+ */
+class JsMessagePort extends SimpleJsFunc {
+
+    public JsMessagePort(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        if (arguments.length < 1 || !arguments[0].isString()) {
+            throw new IllegalArgumentException();
+        }
+        var op = arguments[0].asString();
+        if (op.equals("create")) {
+            return ProxyArray.fromArray((Object[]) ChannelPort.createPair(this.eContext));
+        }
+        if (arguments.length < 2 || !arguments[1].isHostObject()
+                || !(arguments[1].asHostObject() instanceof ChannelPort port)) {
+            throw new IllegalArgumentException();
+        }
+        switch (op) {
+            case "bind" -> port.bind(this.eContext, arguments[2]);
+            case "post" -> {
+                // posting on a port that was transferred away does nothing
+                if (port.isOwnedBy(this.eContext)) {
+                    var transfer = arguments.length > 3 ? arguments[3] : null;
+                    port.post(this.eContext.getStructuredClone().serialize(arguments[2], transfer));
+                }
+            }
+            case "start" -> {
+                if (port.isOwnedBy(this.eContext)) {
+                    port.start();
+                }
+            }
+            case "close" -> port.close();
+            default -> throw new IllegalArgumentException("Unknown message port operation: " + op);
+        }
+        return null;
+    }
+}
+
+/**
+ * Backs {@code StreamChannel}, {@code ReadableStream} and
+ * {@code WritableStream} in webworker.js, called as
+ * {@code _stream(op, end, ...args)}, see {@link ByteStream}.
+ */
+class JsStream extends SimpleJsFunc {
+
+    public JsStream(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        if (arguments.length < 1 || !arguments[0].isString()) {
+            throw new IllegalArgumentException();
+        }
+        var op = arguments[0].asString();
+        if (op.equals("create")) {
+            var capacity = arguments.length > 1 && arguments[1].fitsInInt() && arguments[1].asInt() > 0
+                    ? arguments[1].asInt()
+                    : ByteStream.DEFAULT_CAPACITY;
+            var stream = ByteStream.create(this.eContext, capacity);
+            return ProxyArray.fromArray(stream.readable, stream.writable);
+        }
+        if (arguments.length < 2 || !arguments[1].isHostObject()
+                || !(arguments[1].asHostObject() instanceof ByteStream.End end)) {
+            throw new IllegalArgumentException();
+        }
+        if (!end.isOwnedBy(this.eContext)) {
+            throw new IllegalStateException("The stream was transferred");
+        }
+        var stream = end.stream();
+        switch (op) {
+            case "lock" -> end.lock(arguments[2].asBoolean());
+            case "read" -> stream.read(arguments[2], arguments[3], arguments[4].asBoolean());
+            case "write" -> {
+                var data = arguments[4].isString() ? AsyncIO.encode(arguments[4].asString())
+                        : this.eContext.getStructuredClone().copyBuffer(arguments[4]);
+                stream.write(data, arguments[2], arguments[3]);
+            }
+            case "close" -> stream.close();
+            case "abort" -> stream.abort(arguments[2].asString());
+            case "desiredSize" -> {
+                return stream.desiredSize();
+            }
+            default -> throw new IllegalArgumentException("Unknown stream operation: " + op);
+        }
+        return null;
+    }
+}
+
+/**
+ * Backs the {@code io} global of webworker.js, called as
+ * {@code _asyncIO(op, resolve, reject, ...args)}. Returns at once, the
+ * promise is settled by a later macrotask, see {@link AsyncIO}.
+ */
+class JsAsyncIO extends SimpleJsFunc {
+
+    public JsAsyncIO(EContext eContext) {
+        super(eContext);
+    }
+
+    @Override
+    public Object execute(Value... arguments) {
+        if (arguments.length < 3 || !arguments[0].isString()) {
+            throw new IllegalArgumentException();
+        }
+        var io = this.eContext.asyncIO;
+        var op = arguments[0].asString();
+        var resolve = arguments[1];
+        var reject = arguments[2];
+        if (!io.isHostIOAllowed()) {
+            io.settle(CompletableFuture.failedFuture(new SecurityException("Host IO is not allowed")), resolve, reject,
+                    result -> result);
+            return null;
+        }
+        switch (op) {
+            case "readFile" -> {
+                var read = io.readFile(Path.of(arguments[3].asString()));
+                if (arguments[4].isString()) {
+                    if (!arguments[4].asString().equalsIgnoreCase("utf-8")
+                            && !arguments[4].asString().equalsIgnoreCase("utf8")) {
+                        throw new IllegalArgumentException("Unsupported encoding: " + arguments[4].asString());
+                    }
+                    io.settle(read.thenApply(AsyncIO::decode), resolve, reject, text -> text);
+                } else {
+                    io.settle(read, resolve, reject, this.eContext.getStructuredClone()::wrapBuffer);
+                }
+            }
+            case "writeFile" -> io.settle(
+                    io.writeFile(Path.of(arguments[3].asString()), bytes(arguments[4]), arguments[5].asBoolean()),
+                    resolve, reject, written -> written);
+            case "connect" -> io.settle(
+                    io.connect(arguments[3].isNull() ? null : arguments[3].asString(),
+                            arguments[4].asString(), arguments[5].asInt()),
+                    resolve, reject, connection -> connection);
+            case "read" -> io.settle(AsyncIO.read(connection(arguments[3]), arguments[4].asInt()),
+                    resolve, reject,
+                    buffer -> buffer == null ? null : this.eContext.getStructuredClone().wrapBuffer(buffer));
+            case "write" -> io.settle(AsyncIO.write(connection(arguments[3]), bytes(arguments[4])),
+                    resolve, reject, written -> written);
+            case "close" -> io.close(connection(arguments[3]));
+            default -> throw new IllegalArgumentException("Unknown io operation: " + op);
+        }
+        return null;
+    }
+
+    // a string is written as UTF-8, anything else must be an ArrayBuffer
+    private ByteBuffer bytes(Value data) {
+        if (data.isString()) {
+            return AsyncIO.encode(data.asString());
+        }
+        return this.eContext.getStructuredClone().copyBuffer(data);
+    }
+
+    private static AsyncIO.Connection connection(Value handle) {
+        if (!handle.isHostObject() || !(handle.asHostObject() instanceof AsyncIO.Connection connection)) {
+            throw new IllegalArgumentException();
+        }
+        return connection;
+    }
+}
+
 class JsCurrentDir extends SimpleJsFunc {
 
     public JsCurrentDir(EContext eContext) {
         super(eContext);
     }
 
+    private static Method iterateFrames(Class<?> runtimeClass) throws NoSuchMethodException {
+        // declared by a superclass of the optimizing runtimes
+        for (var c = runtimeClass; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredMethod("iterateFrames", FrameInstanceVisitor.class);
+            } catch (NoSuchMethodException e) {
+                // try the superclass
+            }
+        }
+        throw new NoSuchMethodException(runtimeClass.getName() + ".iterateFrames");
+    }
+
     public static String currentFile() {
         var runtime = Truffle.getRuntime();
         try {
-            var iterate = runtime.getClass().getDeclaredMethod("iterateFrames", FrameInstanceVisitor.class);
+            var iterate = iterateFrames(runtime.getClass());
             iterate.setAccessible(true);
             final Node[] callee = { null };
             iterate.invoke(runtime, new FrameInstanceVisitor<Object>() {
@@ -259,155 +715,1853 @@ class JsCurrentDir extends SimpleJsFunc {
     }
 }
 
-public class EContext {
+public class EContext implements AutoCloseable {
+
+    /**
+     * Options for creating an {@link EContext}. Workers spawned from a context
+     * are created with the same options, so everything configured here applies
+     * to the whole tree of contexts.
+     */
+    public static final class Builder {
+        final Context.Builder contextBuilder;
+        private Engine engine;
+        // whether engine was created by getEngine(), see close()
+        private boolean ownsEngine;
+        private boolean sharedEngine;
+        private TimerBackend timerBackend = TimerBackend.EXECUTOR;
+        private Duration timerTick = Duration.ofMillis(1);
+        private int maxTasksPerTurn = 128;
+        private Duration maxTurnDuration = Duration.ofMillis(10);
+        private ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        private int maxWorkers = Integer.MAX_VALUE;
+        private int prespawnedWorkers = 0;
+        private Duration workerIdleTimeout = Duration.ofMinutes(1);
+        private WorkerManager workerManager;
+        private boolean jmx = false;
+        private Mailbox.Config workerMailbox;
+        private int maxBatchSize = 1;
+        private Path engineCache;
+        private WorkerTransport workerTransport = WorkerTransport.IN_PROCESS;
+        private List<String> workerJvmOptions = List.of();
+        private Duration maxTaskDuration;
+        private long statementLimit = 0;
+        private long maxHeap = 0;
+        private Consumer<ResourceViolation> violationListener;
+        private IntervalMode intervalMode = IntervalMode.FIXED_RATE;
+        private boolean highResolutionTimers = false;
+        private boolean asyncIO = false;
+        private EContextScheduler.Tenant tenant;
+        private List<Source> bootstrap = List.of();
+
+        Builder(Context.Builder contextBuilder) {
+            this.contextBuilder = contextBuilder;
+        }
 
-    final Context.Builder contextBuilder;
-    final EventLoop eventLoop;
+        /**
+         * Use {@code engine} for every context created from this builder,
+         * including workers. The caller remains responsible for closing it.
+         */
+        public synchronized Builder engine(Engine engine) {
+            this.engine = engine;
+            this.ownsEngine = false;
+            this.sharedEngine = engine != null;
+            return this;
+        }
 
-    class EventLoop {
-        private final ScheduledExecutorService executor;
-        private final Context jsContext;
-        private final Thread thread;
+        /**
+         * Lazily create one {@link Engine} and share it between every context
+         * created from this builder, so parsed and compiled code is reused.
+         */
+        public Builder sharedEngine(boolean sharedEngine) {
+            this.sharedEngine = sharedEngine;
+            return this;
+        }
 
-        final ThreadLocal<Map<Object, Consumer<Object>>> handlers = ThreadLocal.withInitial(() -> new HashMap<>());
+        /**
+         * Persist the shared engine's compiled code in {@code file}, which is
+         * loaded when the engine is created if it exists and written by
+         * {@link #storeEngineCache()}. Implies {@link #sharedEngine(boolean)}.
+         *
+         * Auxiliary engine caching is only supported by some GraalVM
+         * runtimes (Oracle GraalVM), elsewhere the file is ignored.
+         */
+        public Builder engineCache(Path file) {
+            this.engineCache = file;
+            this.sharedEngine = true;
+            return this;
+        }
 
-        public EventLoop(Context jsContext, ScheduledExecutorService executor) throws InterruptedException, ExecutionException {
-            this.jsContext = jsContext;
-            this.executor = executor;
+        /**
+         * Write the shared engine's code cache to the
+         * {@link #engineCache(Path)} file, typically once the application is
+         * warmed up. Returns false if the runtime does not support it or
+         * the engine was not created with cache storing enabled, e.g. one
+         * passed to {@link #engine(Engine)}.
+         */
+        public synchronized boolean storeEngineCache() {
+            var engine = getEngine();
+            if (this.engineCache == null || engine == null) {
+                throw new IllegalStateException("No engine cache file configured");
+            }
+            try {
+                return engine.storeCache(this.engineCache);
+            } catch (UnsupportedOperationException | IllegalStateException e) {
+                // not supported, or the engine was created without cache storing
+                return false;
+            }
+        }
 
-            // explicit binding Context to this thread
-            jsContext.enter();
+        /**
+         * Evaluate {@code sources}, scripts or ES modules, in order in every
+         * context built from this builder, workers included, once it is
+         * initialized. What they define is kept when a pooled context is
+         * reset. Implies {@link #sharedEngine(boolean)}, so every source is
+         * only parsed once. See {@link EContextTemplate}.
+         */
+        public Builder bootstrap(List<Source> sources) {
+            this.bootstrap = List.copyOf(sources);
+            this.sharedEngine = true;
+            return this;
+        }
 
-            this.thread = Thread.currentThread();
+        /**
+         * Select how {@code setTimeout} and {@code setInterval} timers are
+         * kept, see {@link TimerBackend}.
+         */
+        public Builder timers(TimerBackend timerBackend) {
+            this.timerBackend = timerBackend;
+            return this;
         }
 
-        public ScheduledExecutorService getExecutor() {
-            return executor;
+        /**
+         * Granularity of the {@link TimerBackend#HASHED_WHEEL} backend,
+         * timers fire up to one tick late. Defaults to 1ms.
+         */
+        public Builder timerTick(Duration timerTick) {
+            if (timerTick.isNegative() || timerTick.isZero()) {
+                throw new IllegalArgumentException();
+            }
+            this.timerTick = timerTick;
+            return this;
         }
 
-        public long threadId() {
-            return this.thread.threadId();
+        /**
+         * Whether {@code setInterval} keeps a fixed rate or a fixed delay
+         * between runs, see {@link IntervalMode}. Defaults to
+         * {@link IntervalMode#FIXED_RATE}.
+         */
+        public Builder intervalMode(IntervalMode intervalMode) {
+            this.intervalMode = intervalMode;
+            return this;
         }
 
-        public Context getJsContext() {
-            if (!Thread.currentThread().equals(this.thread)) {
-                throw new IllegalThreadStateException();
-            }
-            return jsContext;
+        /**
+         * Take fractional millisecond delays as they are and do not clamp
+         * nested timers to 4ms. Each timer spins for its last 0.1ms on the
+         * event loop, for accuracy well below a millisecond. Pair it with a
+         * small {@link #timerTick} for the {@link TimerBackend#HASHED_WHEEL}
+         * backend.
+         */
+        public Builder highResolutionTimers(boolean highResolutionTimers) {
+            this.highResolutionTimers = highResolutionTimers;
+            return this;
         }
 
-        void putMessageHandler(Object key, Consumer<Object> handler) {
-            if (!Thread.currentThread().equals(this.thread)) {
-                throw new IllegalThreadStateException();
+        /**
+         * Install the {@code io} global: promise based file reads and writes
+         * and TCP or Unix domain socket connections that do not block the
+         * event loop, see README. Its operations are rejected unless the
+         * {@link Context.Builder} allows host IO, e.g. with
+         * {@code allowIO(IOAccess.ALL)}. Beyond that it does not follow the
+         * context's {@link org.graalvm.polyglot.io.IOAccess}: any file and
+         * any host can be reached, so only enable it for trusted scripts.
+         * In process workers get it as well.
+         */
+        public Builder asyncIO(boolean asyncIO) {
+            this.asyncIO = asyncIO;
+            return this;
+        }
+
+        /**
+         * Run the event loop on the threads of {@code tenant}'s
+         * {@link EContextScheduler} instead of a thread of its own, along
+         * with every other context of the scheduler. The thread factory is
+         * not used then. In process workers join the same tenant.
+         */
+        public Builder scheduler(EContextScheduler.Tenant tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        /**
+         * Upper bound of macrotasks run in one event loop turn before timers
+         * and other executor work get a chance to run. Defaults to 128.
+         */
+        public Builder maxTasksPerTurn(int maxTasksPerTurn) {
+            if (maxTasksPerTurn < 1) {
+                throw new IllegalArgumentException();
             }
-            this.handlers.get().put(key, handler);
+            this.maxTasksPerTurn = maxTasksPerTurn;
+            return this;
         }
 
-        public ThreadLocal<Map<Object, Consumer<Object>>> getHandlers() {
-            if (!Thread.currentThread().equals(this.thread)) {
-                throw new IllegalThreadStateException();
+        /**
+         * Time after which a turn stops taking new macrotasks, even if fewer
+         * than {@link #maxTasksPerTurn} ran. Defaults to 10ms.
+         */
+        public Builder maxTurnDuration(Duration maxTurnDuration) {
+            if (maxTurnDuration.isNegative() || maxTurnDuration.isZero()) {
+                throw new IllegalArgumentException();
             }
-            return handlers;
+            this.maxTurnDuration = maxTurnDuration;
+            return this;
         }
-    }
 
-    static void initializeJsContext(Context jsContext, EContext eventContext) {
-        try {
-            var webworkerUrl = eventContext.getClass().getClassLoader().getResource("webworker.js");
-            jsContext.eval(Source.newBuilder("js", webworkerUrl).build());
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        /**
+         * Run every event loop created from this builder on its own virtual
+         * thread instead of a platform thread. An idle loop then costs a
+         * parked virtual thread rather than an OS thread, and all loops are
+         * multiplexed over the JDK's carrier pool (one carrier per core by
+         * default, see {@code jdk.virtualThreadScheduler.parallelism}). Each
+         * loop still runs on exactly one thread, so context affinity holds.
+         *
+         * While js code runs, its carrier thread is pinned, so this suits
+         * many mostly idle contexts rather than many busy ones.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.threadFactory = virtualThreads ? Thread.ofVirtual().factory() : Executors.defaultThreadFactory();
+            return this;
         }
-        var bindings = jsContext.getBindings("js");
-        bindings.putMember("setTimeout", new JsSetTimeout(eventContext));
-        var jsClearTask = new JsClearTimeout(eventContext);
-        bindings.putMember("clearTimeout", jsClearTask);
-        bindings.putMember("clearInterval", jsClearTask);
-        bindings.putMember("_newEContext", new JsNewWorkerContext(eventContext));
-        bindings.putMember("_currentDir", new JsCurrentDir(eventContext));
-    }
 
-    public EContext(Context.Builder contextBuilder) {
-        try {
-            var executor = Executors.newSingleThreadScheduledExecutor();
-            var eventLoop = executor.submit(() -> {
-                var jsContext = contextBuilder.build();
-                Thread.currentThread().setName("JS Main");
-                return new EventLoop(jsContext, executor);
-            }).get();
-            this.eventLoop = eventLoop;
-            this.contextBuilder = contextBuilder;
-            this.eval(()-> {
-                initializeJsContext(this.getJsContext(), this);
-            });
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
+        /**
+         * Thread factory for the event loop threads.
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
         }
-    }
 
-    public <T> T eval(Supplier<T> f) {
-        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
-            throw new IllegalThreadStateException();
+        /**
+         * Register an {@link EventLoopMXBean} for every context, unregistered
+         * on shutdown.
+         */
+        public Builder jmx(boolean jmx) {
+            this.jmx = jmx;
+            return this;
         }
-        try {
-            return this.eventLoop.getExecutor().submit(() -> {
-                return f.get();
-            }).get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
+
+        /**
+         * Bound the messages queued from and to every worker, unbounded by
+         * default. A worker's inbox can also be configured with the
+         * {@code mailbox} option of {@code new Worker(...)}.
+         */
+        public Builder workerMailbox(Mailbox.Config workerMailbox) {
+            this.workerMailbox = workerMailbox;
+            return this;
         }
-    }
 
-    public void eval(Runnable f) {
-        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
-            throw new IllegalThreadStateException();
+        /**
+         * Coalesce the messages a context posts to a worker, or a worker to
+         * its parent, during one task into batches of up to
+         * {@code maxBatchSize}, delivered in a single task of the receiver.
+         * The receiver gets them one by one through {@code onmessage}, or
+         * all at once through {@code onmessages} if it is set. 1, the
+         * default, disables batching.
+         */
+        public Builder messageBatching(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
         }
-        try {
-            this.eventLoop.getExecutor().submit(f).get();
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
+
+        int getMaxBatchSize() {
+            return this.maxBatchSize;
         }
-    }
 
-    public Value eval(String source) {
-        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
-            throw new IllegalThreadStateException();
+        Mailbox.Config getWorkerMailbox() {
+            return this.workerMailbox;
         }
-        return this.eval(() -> {
-            return this.getJsContext().eval("js", source);
-        });
-    }
 
-    public Value eval(Source source) {
-        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
-            throw new IllegalThreadStateException();
+        Timers newTimers(ScheduledExecutorService executor, Executor dispatch) {
+            return switch (this.timerBackend) {
+                case EXECUTOR -> new ExecutorTimers(executor, dispatch);
+                case HASHED_WHEEL -> new HashedWheelTimers(executor, dispatch, this.timerTick.toNanos(),
+                        TIMER_WHEEL_SIZE);
+            };
         }
-        return this.eval(() -> {
-            return this.getJsContext().eval(source);
-        });
-    }
 
-    public void sendMessage(Object key, Object data) {
-        this.evalAsync(() -> {
-            var handlers = this.eventLoop.getHandlers().get();
-            if (handlers.containsKey(key)) {
-                handlers.get(key).accept(data);
+        /**
+         * Maximum number of live workers across all contexts created from
+         * this builder. {@code new Worker(...)} throws once it is reached,
+         * until a worker is terminated.
+         */
+        public Builder maxWorkers(int maxWorkers) {
+            if (maxWorkers < 1) {
+                throw new IllegalArgumentException();
             }
-        });
-    }
+            this.maxWorkers = maxWorkers;
+            return this;
+        }
 
-    Future<?> evalAsync(Runnable f) {
-        return this.eventLoop.getExecutor().submit(f);
-    }
+        /**
+         * Number of worker contexts kept initialized ahead of time, so that
+         * {@code new Worker(...)} only has to evaluate the worker script.
+         * Unused ones are shut down after {@code idleTimeout}, down to this
+         * number, and all of them by {@link #close()}.
+         */
+        public Builder prespawnedWorkers(int prespawnedWorkers, Duration idleTimeout) {
+            if (prespawnedWorkers < 0) {
+                throw new IllegalArgumentException();
+            }
+            this.prespawnedWorkers = prespawnedWorkers;
+            this.workerIdleTimeout = idleTimeout;
+            return this;
+        }
 
-    <T> Future<T> evalAsync(Supplier<T> f) {
-        return this.eventLoop.getExecutor().submit(() -> {
-            return f.get();
-        });
-    }
+        /**
+         * Where {@code new Worker(...)} runs workers by default, see
+         * {@link WorkerTransport}. A worker can also pick its own with the
+         * {@code transport} option, {@code 'in-process'} or {@code 'process'}.
+         *
+         * A {@link WorkerTransport#PROCESS} worker's context is created with
+         * IO access and default options otherwise: of this builder only the
+         * {@link #workerMailbox} capacity and policy and the
+         * {@link #workerJvmOptions} reach it, the {@link Context.Builder}
+         * and the timer, scheduling, batching and engine settings do not.
+         * Settings a script would depend on, {@link #bootstrap},
+         * {@link #asyncIO}, the resource limits and a mailbox
+         * {@link Mailbox.WatermarkListener}, can not be honored there, so
+         * {@link #build()} and {@code new Worker(...)} throw an
+         * {@link IllegalStateException} when they are combined with it.
+         */
+        public Builder workerTransport(WorkerTransport workerTransport) {
+            this.workerTransport = workerTransport;
+            return this;
+        }
 
-    Context.Builder getContextBuilder() {
-        return contextBuilder;
+        /**
+         * Options of the JVMs running {@link WorkerTransport#PROCESS}
+         * workers, e.g. {@code -Xmx512m}.
+         */
+        public Builder workerJvmOptions(List<String> workerJvmOptions) {
+            this.workerJvmOptions = List.copyOf(workerJvmOptions);
+            return this;
+        }
+
+        /**
+         * Cancel a context whose task, including its microtask checkpoint,
+         * runs longer than {@code maxTaskDuration}, e.g. an endless loop in a
+         * timer callback. Overruns are detected within a quarter of the limit.
+         * Starting the context of a {@code new Worker} does not count.
+         */
+        public Builder maxTaskDuration(Duration maxTaskDuration) {
+            if (maxTaskDuration.isNegative() || maxTaskDuration.isZero()) {
+                throw new IllegalArgumentException();
+            }
+            this.maxTaskDuration = maxTaskDuration;
+            return this;
+        }
+
+        /**
+         * Cancel a context whose task runs more than {@code statementLimit}
+         * js statements, counted with polyglot {@link ResourceLimits} and
+         * reset before every task. Loading the bootstrap script of a context
+         * counts too, so keep it in the thousands at least.
+         */
+        public Builder statementLimit(long statementLimit) {
+            if (statementLimit < 1) {
+                throw new IllegalArgumentException();
+            }
+            this.statementLimit = statementLimit;
+            return this;
+        }
+
+        /**
+         * Cancel a context whose heap grows past {@code bytes}, rounded up to
+         * a megabyte. Relies on the {@code sandbox.MaxHeapMemory} option of
+         * Oracle GraalVM, throws {@link UnsupportedOperationException} on
+         * runtimes without it.
+         */
+        public Builder maxHeap(long bytes) {
+            if (bytes < 1) {
+                throw new IllegalArgumentException();
+            }
+            if (!MaxHeap.SUPPORTED) {
+                throw new UnsupportedOperationException(MAX_HEAP_OPTION + " is not supported by this runtime");
+            }
+            this.maxHeap = bytes;
+            return this;
+        }
+
+        /**
+         * Called when a context exceeds one of its limits, just before it is
+         * cancelled. Runs on the event loop or a watchdog thread, keep it
+         * short.
+         */
+        public Builder onResourceViolation(Consumer<ResourceViolation> violationListener) {
+            this.violationListener = violationListener;
+            return this;
+        }
+
+        WorkerTransport getWorkerTransport() {
+            return this.workerTransport;
+        }
+
+        List<Source> getBootstrap() {
+            return this.bootstrap;
+        }
+
+        // see workerTransport()
+        void checkProcessWorker(Mailbox.Config inbox) {
+            String unsupported = null;
+            if (!this.bootstrap.isEmpty()) {
+                unsupported = "bootstrap";
+            } else if (this.asyncIO) {
+                unsupported = "asyncIO";
+            } else if (this.maxTaskDuration != null || this.statementLimit > 0 || this.maxHeap > 0) {
+                unsupported = "resource limits";
+            } else if (inbox != null && inbox.listener() != null) {
+                unsupported = "a mailbox watermark listener";
+            }
+            if (unsupported != null) {
+                throw new IllegalStateException("Process workers do not support " + unsupported);
+            }
+        }
+
+        List<String> getWorkerJvmOptions() {
+            return this.workerJvmOptions;
+        }
+
+        /**
+         * Metrics of the pool the contexts of in process workers are taken
+         * from, null until the first one was needed.
+         */
+        public synchronized EContextPool.Metrics getWorkerMetrics() {
+            return this.workerManager == null ? null : this.workerManager.getMetrics();
+        }
+
+        /**
+         * Release what this builder keeps for the contexts built from it: the
+         * worker pool with its prespawned contexts and maintenance thread,
+         * and the shared engine if the builder created it. Call it once
+         * those contexts are closed. Building again starts over.
+         */
+        public synchronized void close() {
+            if (this.workerManager != null) {
+                this.workerManager.close();
+                this.workerManager = null;
+            }
+            if (this.ownsEngine) {
+                this.engine.close();
+                this.engine = null;
+                this.ownsEngine = false;
+            }
+        }
+
+        synchronized WorkerManager getWorkerManager() {
+            if (this.workerManager == null) {
+                this.workerManager = new WorkerManager(this, Math.min(this.prespawnedWorkers, this.maxWorkers),
+                        this.maxWorkers, this.workerIdleTimeout);
+            }
+            return this.workerManager;
+        }
+
+        synchronized Engine getEngine() {
+            if (this.sharedEngine && this.engine == null) {
+                this.engine = createEngine();
+                this.ownsEngine = true;
+            }
+            return this.engine;
+        }
+
+        private Engine createEngine() {
+            if (this.engineCache == null) {
+                return Engine.create("js");
+            }
+            try {
+                // the cache can only be stored by an engine created to store it
+                var builder = Engine.newBuilder("js").option("engine.CacheStoreEnabled", "true");
+                if (Files.isRegularFile(this.engineCache)) {
+                    builder.option("engine.CacheLoad", this.engineCache.toString());
+                }
+                return builder.build();
+            } catch (IllegalArgumentException e) {
+                // the option does not exist on runtimes without engine caching
+                return Engine.create("js");
+            }
+        }
+
+        public EContext build() {
+            if (this.workerTransport == WorkerTransport.PROCESS) {
+                checkProcessWorker(this.workerMailbox);
+            }
+            var eContext = new EContext(this);
+            if (this.prespawnedWorkers > 0) {
+                // start spawning worker contexts along with the first context
+                getWorkerManager();
+            }
+            return eContext;
+        }
+    }
+
+    public enum TimerBackend {
+        /**
+         * Every timer is a task on the event loop's executor, with O(log n)
+         * insert and cancel.
+         */
+        EXECUTOR,
+        /**
+         * A hashed timing wheel with O(1) insert and cancel, suited for large
+         * numbers of mostly cancelled timers. Timers fire with the granularity
+         * set by {@link Builder#timerTick}.
+         */
+        HASHED_WHEEL
+    }
+
+    public enum WorkerTransport {
+        /**
+         * Every worker gets a context of this JVM, with its own event loop
+         * thread. Cheap to start and to message, but all workers share one
+         * heap and one GC.
+         */
+        IN_PROCESS,
+        /**
+         * Every worker runs in a child JVM, connected over a Unix domain
+         * socket, so heavy workers get a heap and GC of their own and do not
+         * pause the parent. Messages are structured clones like in
+         * process, except that {@code SharedArrayBuffer}s and
+         * {@code MessagePort}s can not be posted. Starting a worker costs a
+         * JVM start up, and {@link Builder#maxWorkers} does not count these
+         * workers. Requires a JVM, not a native image.
+         */
+        PROCESS
+    }
+
+    public enum IntervalMode {
+        /**
+         * Runs are due at whole periods from when the interval was set, so
+         * late runs do not shift later ones. Runs that are missed entirely
+         * are skipped.
+         */
+        FIXED_RATE,
+        /**
+         * Each run is due a period after the previous one ended, like
+         * browsers do.
+         */
+        FIXED_DELAY
+    }
+
+    static final int TIMER_WHEEL_SIZE = 512;
+
+    private static final String MAX_HEAP_OPTION = "sandbox.MaxHeapMemory";
+
+    // Whether the runtime has MAX_HEAP_OPTION, probed the first time maxHeap() is used
+    private static class MaxHeap {
+        static final boolean SUPPORTED;
+
+        static {
+            try (var engine = Engine.create("js")) {
+                SUPPORTED = engine.getOptions().get(MAX_HEAP_OPTION) != null;
+            }
+        }
+    }
+
+    // Checks the task durations of every context with a maxTaskDuration
+    private static class Watchdog {
+        static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("EContext watchdog").factory());
+    }
+
+    public static Builder newBuilder(Context.Builder contextBuilder) {
+        return new Builder(contextBuilder);
+    }
+
+    final Builder options;
+    // whether options were made for this context alone, see completeClosed()
+    private final boolean ownsOptions;
+    final Context.Builder contextBuilder;
+    final EventLoop eventLoop;
+    // Workers spawned by this context, only accessed from the event loop thread
+    final Set<JsNewWorkerContext.Worker> workers = new HashSet<>();
+    // Global names present right after initialization, see reset()
+    private Set<String> baselineGlobals = Set.of();
+    // Puts back the globals and built-ins as they were after initialization, see reset()
+    private Value restoreBaseline;
+    // Only used on the event loop thread
+    private StructuredClone structuredClone;
+    // Completed once the js context is closed, see shutdownAsync()
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    // Completed once this context and its workers' are closed, see closeAsync()
+    private final CompletableFuture<CloseReport> closed = new CompletableFuture<>();
+    private boolean draining = false;
+    private ScheduledFuture<?> drainDeadline;
+    // only used on the event loop thread while draining
+    private int timersCancelled = 0;
+    private long drainSteps = 0;
+    // set by closeAsync() before it posts the drain
+    private long drainedFrom = -1;
+    // set once the js context is closed from another thread, see cancelJsContext()
+    private volatile boolean cancelled = false;
+    // The limit this context exceeded, once it did, see violate()
+    private final AtomicReference<ResourceViolation> violation = new AtomicReference<>();
+    // Set by the statement limit's callback, tells it from the heap limit, see checkCancelled()
+    private volatile boolean statementLimitReached = false;
+    private ScheduledFuture<?> watchdog;
+
+    private static final AtomicLong ids = new AtomicLong();
+    final long id = ids.incrementAndGet();
+    final EventLoopMetrics metrics = new EventLoopMetrics();
+    // the clock of performance.now()
+    final long startNanos = System.nanoTime();
+    final double timeOrigin = System.currentTimeMillis();
+    // Only used on the event loop thread, null unless Builder#asyncIO
+    AsyncIO asyncIO;
+    // Message ports owned by this context, see ChannelPort
+    final Set<ChannelPort> ports = ConcurrentHashMap.newKeySet();
+    // Ends of byte streams owned by this context and not finished, see ByteStream
+    final Set<ByteStream.End> streams = ConcurrentHashMap.newKeySet();
+    // Bounded mailboxes by handler key, see setMailbox()
+    private final Map<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private ObjectName mbeanName;
+
+    /**
+     * Runs macrotasks (evals, messages and timers) on a single thread.
+     *
+     * Tasks posted from any thread go to a macrotask queue. A turn is one
+     * executor task that drains up to {@code maxTasksPerTurn} queued tasks, or
+     * as many as fit in {@code maxTurnDuration}, so a burst of messages costs
+     * one executor hand-off instead of one per message. A microtask checkpoint
+     * (Promise jobs, {@code queueMicrotask}) is performed after every task.
+     */
+    class EventLoop {
+        private final ScheduledExecutorService executor;
+        private final Timers timers;
+        private final JsTimers jsTimers;
+        private final Context jsContext;
+        // the thread the js context is entered on, null between the slices of a scheduled loop
+        private volatile Thread thread;
+
+        // future, if any, is failed when the task is discarded, see discardTasks()
+        private record Macrotask(Runnable task, long postedAt, CompletableFuture<?> future) {
+        }
+
+        private final ConcurrentLinkedQueue<Macrotask> macrotasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedTasks = new AtomicInteger();
+        private final AtomicBoolean turnScheduled = new AtomicBoolean(false);
+        private final int maxTasksPerTurn;
+        private final long maxTurnNanos;
+        // once set, queued tasks are dropped and new ones rejected, see EContext.shutdownAsync()
+        private volatile boolean closing = false;
+        // run once when the current task ends, see afterTask()
+        private final ArrayList<Runnable> afterTask = new ArrayList<>();
+        private final boolean statementLimit;
+        // set when the context is closed, timers that fire later are dropped
+        private boolean timersClosed = false;
+        // read by closeAsync() from any thread
+        private volatile long tasksRun = 0;
+        // read by the watchdog, see runningFor()
+        private volatile long taskStartedAt;
+        private volatile boolean runningTask = false;
+
+        private final Map<Object, Consumer<Object>> handlers = new HashMap<>();
+
+        public EventLoop(Context jsContext, ScheduledExecutorService executor, Builder options) {
+            this.jsContext = jsContext;
+            this.executor = executor;
+            this.timers = new MeasuredTimers(options.newTimers(executor, task -> {
+                if (!this.timersClosed) {
+                    runMacrotask(task, "timer", 0);
+                }
+            }));
+            this.jsTimers = new JsTimers(this.timers, this::post, options.intervalMode, options.highResolutionTimers);
+            this.maxTasksPerTurn = options.maxTasksPerTurn;
+            this.maxTurnNanos = options.maxTurnDuration.toNanos();
+            this.statementLimit = options.statementLimit > 0;
+
+            if (executor instanceof TenantExecutor tenantExecutor) {
+                // entered for one slice at a time, on any of the scheduler's threads
+                tenantExecutor.bind(this::enter, this::leave);
+            }
+            // explicit binding Context to this thread
+            enter();
+        }
+
+        private void enter() {
+            this.jsContext.enter();
+            this.thread = Thread.currentThread();
+        }
+
+        /**
+         * Leave the js context on the current thread, if it is entered.
+         */
+        void leave() {
+            if (this.thread == null) {
+                return;
+            }
+            this.thread = null;
+            this.jsContext.leave();
+        }
+
+        /**
+         * Name the event loop thread, unless it is shared with other loops.
+         */
+        void setThreadName(String name) {
+            if (!(this.executor instanceof TenantExecutor)) {
+                Thread.currentThread().setName(name);
+            }
+        }
+
+        public ScheduledExecutorService getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Queue a macrotask, callable from any thread. Throws
+         * {@link RejectedExecutionException} once the loop is closing.
+         */
+        void post(Runnable task) {
+            post(task, null);
+        }
+
+        /**
+         * Like {@link #post(Runnable)}, {@code future} is completed
+         * exceptionally if the task is discarded instead of run.
+         */
+        void post(Runnable task, CompletableFuture<?> future) {
+            if (this.closing) {
+                throw new RejectedExecutionException("The event loop is closed");
+            }
+            var macrotask = new Macrotask(task, System.nanoTime(), future);
+            this.macrotasks.add(macrotask);
+            this.queuedTasks.incrementAndGet();
+            if (this.closing && this.macrotasks.remove(macrotask)) {
+                // raced with discardTasks()
+                this.queuedTasks.decrementAndGet();
+                throw new RejectedExecutionException("The event loop is closed");
+            }
+            if (this.turnScheduled.compareAndSet(false, true)) {
+                this.executor.execute(this::runTurn);
+            }
+        }
+
+        private void runTurn() {
+            if (this.closing) {
+                return;
+            }
+            var start = System.nanoTime();
+            Macrotask task;
+            for (int i = 0; i < this.maxTasksPerTurn && (task = this.macrotasks.poll()) != null; i++) {
+                this.queuedTasks.decrementAndGet();
+                var queueLatency = System.nanoTime() - task.postedAt();
+                metrics.queueLatency.record(queueLatency);
+                if (!runMacrotask(task.task(), "task", queueLatency)) {
+                    discard(task);
+                }
+                if (System.nanoTime() - start >= this.maxTurnNanos) {
+                    break;
+                }
+            }
+            this.turnScheduled.set(false);
+            // tasks left over, or posted after the last poll, get another turn
+            if (!this.macrotasks.isEmpty() && this.turnScheduled.compareAndSet(false, true)) {
+                this.executor.execute(this::runTurn);
+            }
+        }
+
+        /**
+         * Run {@code task} followed by a microtask checkpoint. An exception
+         * thrown by the task is dropped, like for a task on an executor;
+         * callers that need it complete a future, see
+         * {@link EContext#evalAsync(Supplier)}. Returns false if the task
+         * was not run because the loop is closing.
+         */
+        boolean runMacrotask(Runnable task, String kind, long queueLatency) {
+            if (this.closing) {
+                return false;
+            }
+            var event = new EventLoopEvents.Task();
+            event.begin();
+            this.tasksRun++;
+            var start = System.nanoTime();
+            this.taskStartedAt = start;
+            this.runningTask = true;
+            try {
+                if (this.statementLimit) {
+                    this.jsContext.resetLimits();
+                }
+                task.run();
+            } catch (RuntimeException e) {
+                // one failing task must not take down the loop
+                checkCancelled(e);
+            }
+            performMicrotaskCheckpoint();
+            if (!this.afterTask.isEmpty()) {
+                runAfterTask();
+            }
+            this.runningTask = false;
+            metrics.taskRun(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.contextId = id;
+                event.kind = kind;
+                event.queueLatency = queueLatency;
+                event.commit();
+            }
+            return true;
+        }
+
+        /**
+         * Records how late timers start.
+         */
+        private final class MeasuredTimers implements Timers {
+            private final Timers timers;
+
+            MeasuredTimers(Timers timers) {
+                this.timers = timers;
+            }
+
+            @Override
+            public Timeout schedule(Runnable task, long delayNanos) {
+                var deadline = System.nanoTime() + Math.max(delayNanos, 0);
+                return this.timers.schedule(() -> {
+                    var lateness = System.nanoTime() - deadline;
+                    metrics.timerLateness.record(lateness);
+                    var event = new EventLoopEvents.TimerLateness();
+                    if (event.shouldCommit()) {
+                        event.contextId = id;
+                        event.lateness = lateness;
+                        event.commit();
+                    }
+                    task.run();
+                }, delayNanos);
+            }
+
+            @Override
+            public int pending() {
+                return this.timers.pending();
+            }
+        }
+
+        /**
+         * Run {@code callback} once the current macrotask and its microtasks
+         * are done.
+         */
+        void afterTask(Runnable callback) {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            this.afterTask.add(callback);
+        }
+
+        private void runAfterTask() {
+            var callbacks = List.copyOf(this.afterTask);
+            this.afterTask.clear();
+            for (var callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    // like an exception thrown by the task itself
+                }
+            }
+        }
+
+        /**
+         * GraalJS runs pending Promise jobs when a top level evaluation
+         * returns, an empty script is the cheapest way to trigger that.
+         */
+        void performMicrotaskCheckpoint() {
+            try {
+                this.jsContext.eval(Bootstrap.MICROTASK_CHECKPOINT);
+            } catch (RuntimeException e) {
+                // an error in a microtask is reported like an error in a task
+                checkCancelled(e);
+            }
+        }
+
+        /**
+         * Run {@code f} within the current task without counting its time
+         * towards the task's duration, see {@link #runningFor()}.
+         */
+        <T> T untimed(Supplier<T> f) {
+            if (!this.runningTask) {
+                return f.get();
+            }
+            var start = System.nanoTime();
+            this.runningTask = false;
+            try {
+                return f.get();
+            } finally {
+                this.taskStartedAt += System.nanoTime() - start;
+                this.runningTask = true;
+            }
+        }
+
+        /**
+         * How long the current task has been running, 0 between tasks.
+         * Callable from any thread.
+         */
+        long runningFor() {
+            // read in this order, a newer start only makes it shorter
+            return this.runningTask ? System.nanoTime() - this.taskStartedAt : 0;
+        }
+
+        int queuedTasks() {
+            return this.queuedTasks.get();
+        }
+
+        /**
+         * Drop the timers that did not fire yet, returns how many there were.
+         */
+        int cancelTimers() {
+            if (this.timersClosed) {
+                return 0;
+            }
+            this.timersClosed = true;
+            return scheduledTasks() + this.timers.pending();
+        }
+
+        /**
+         * Drop the queued tasks, returns how many there were. Their futures
+         * are completed with a {@link RejectedExecutionException}.
+         */
+        int discardTasks() {
+            var discarded = 0;
+            Macrotask task;
+            while ((task = this.macrotasks.poll()) != null) {
+                discarded++;
+                discard(task);
+            }
+            this.queuedTasks.addAndGet(-discarded);
+            return discarded;
+        }
+
+        private static void discard(Macrotask task) {
+            if (task.future() != null) {
+                task.future().completeExceptionally(new RejectedExecutionException("The event loop is closed"));
+            }
+        }
+
+        /**
+         * Number of timers and messages waiting to run, excluding the
+         * currently running task.
+         */
+        int pendingTasks() {
+            return scheduledTasks() + queuedTasks() + timers.pending();
+        }
+
+        /**
+         * Tasks waiting on the executor, including timers.
+         */
+        int scheduledTasks() {
+            if (this.executor instanceof TenantExecutor tenantExecutor) {
+                return tenantExecutor.queued();
+            }
+            return ((ScheduledThreadPoolExecutor) this.executor).getQueue().size();
+        }
+
+        Timers getTimers() {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            return timers;
+        }
+
+        JsTimers getJsTimers() {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            return jsTimers;
+        }
+
+        public long threadId() {
+            var thread = this.thread;
+            return thread == null ? -1 : thread.threadId();
+        }
+
+        public Context getJsContext() {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            return jsContext;
+        }
+
+        void putMessageHandler(Object key, Consumer<Object> handler) {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            this.handlers.put(key, handler);
+        }
+
+        public Map<Object, Consumer<Object>> getHandlers() {
+            if (!Thread.currentThread().equals(this.thread)) {
+                throw new IllegalThreadStateException();
+            }
+            return handlers;
+        }
+    }
+
+    // Built once so that contexts sharing an Engine also share the parsed
+    // bootstrap. The content is read eagerly so that a native image can
+    // initialize this class at build time, see native-image.properties.
+    private static class Bootstrap {
+        static final Source WEBWORKER_SOURCE = load();
+        static final Source MICROTASK_CHECKPOINT = Source.create("js", "");
+
+        private static Source load() {
+            try (var in = EContext.class.getClassLoader().getResourceAsStream("webworker.js")) {
+                if (in == null) {
+                    throw new IOException("webworker.js is missing");
+                }
+                var content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                return Source.newBuilder("js", content, "webworker.js").buildLiteral();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    static void initializeJsContext(Context jsContext, EContext eventContext) {
+        jsContext.eval(Bootstrap.WEBWORKER_SOURCE);
+        eventContext.structuredClone = new StructuredClone(jsContext, eventContext);
+        var bindings = jsContext.getBindings("js");
+        bindings.putMember("setTimeout", new JsSetTimeout(eventContext));
+        bindings.putMember("setInterval", new JsSetInterval(eventContext));
+        bindings.putMember("setImmediate", new JsSetImmediate(eventContext));
+        var jsClearTask = new JsClearTimeout(eventContext);
+        bindings.putMember("clearTimeout", jsClearTask);
+        bindings.putMember("clearInterval", jsClearTask);
+        bindings.putMember("clearImmediate", jsClearTask);
+        var performance = bindings.getMember("Object").newInstance();
+        performance.putMember("timeOrigin", eventContext.timeOrigin);
+        performance.putMember("now", new JsPerformanceNow(eventContext));
+        bindings.putMember("performance", performance);
+        bindings.putMember("_newEContext", new JsNewWorkerContext(eventContext));
+        bindings.putMember("_currentDir", new JsCurrentDir(eventContext));
+        bindings.putMember("_sharedMemory", new JsSharedMemory(eventContext));
+        if (jsContext.asValue(ByteBuffer.allocateDirect(0)).hasBufferElements()) {
+            // host backed SharedArrayBuffers need host buffer access
+            bindings.getMember("_setup_shared_memory").execute();
+        }
+        bindings.putMember("_messagePort", new JsMessagePort(eventContext));
+        bindings.putMember("_stream", new JsStream(eventContext));
+        if (eventContext.options.asyncIO) {
+            eventContext.asyncIO = new AsyncIO(eventContext, jsContext);
+            bindings.putMember("_asyncIO", new JsAsyncIO(eventContext));
+            bindings.getMember("_setup_io").execute();
+        }
+    }
+
+    /**
+     * A context with default options. What they keep for its workers is
+     * released along with it, see {@link Builder#close()}.
+     */
+    public EContext(Context.Builder contextBuilder) {
+        this(new Builder(contextBuilder), true);
+    }
+
+    EContext(Builder options) {
+        this(options, false);
+    }
+
+    private EContext(Builder options, boolean ownsOptions) {
+        this.ownsOptions = ownsOptions;
+        var contextBuilder = options.contextBuilder;
+        var engine = options.getEngine();
+        if (engine != null) {
+            contextBuilder.engine(engine);
+        }
+        this.options = options;
+        this.contextBuilder = contextBuilder;
+        if (options.tenant != null) {
+            // built on the calling thread, which may be the only free scheduler thread
+            var executor = new TenantExecutor(options.tenant);
+            this.eventLoop = executor.runInline(() -> new EventLoop(buildJsContext(), executor, options));
+            executor.runInline(() -> {
+                initialize();
+                return null;
+            });
+        } else {
+            var executor = new ScheduledThreadPoolExecutor(1, options.threadFactory);
+            // cancelled timers must not count as pending work, see isQuiescent()
+            executor.setRemoveOnCancelPolicy(true);
+            try {
+                this.eventLoop = executor.submit(() -> {
+                    var jsContext = buildJsContext();
+                    Thread.currentThread().setName("JS Main");
+                    return new EventLoop(jsContext, executor, options);
+                }).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            this.eval(this::initialize);
+        }
+        if (options.jmx) {
+            registerMBean();
+        }
+        if (options.maxTaskDuration != null) {
+            var maxNanos = options.maxTaskDuration.toNanos();
+            var period = Math.max(maxNanos / 4, TimeUnit.MILLISECONDS.toNanos(1));
+            this.watchdog = Watchdog.executor.scheduleAtFixedRate(() -> checkTaskDuration(maxNanos), period,
+                    period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Build the js context with the limits of {@link #options}. They are set
+     * on the shared {@link Context.Builder} right before, the statement
+     * limit's callback is this context's own.
+     */
+    private Context buildJsContext() {
+        synchronized (this.contextBuilder) {
+            if (this.options.statementLimit > 0) {
+                this.contextBuilder.resourceLimits(ResourceLimits.newBuilder()
+                        .statementLimit(this.options.statementLimit, null)
+                        .onLimit(event -> this.statementLimitReached = true)
+                        .build());
+            }
+            if (this.options.maxHeap > 0) {
+                this.contextBuilder.option(MAX_HEAP_OPTION, Math.ceilDiv(this.options.maxHeap, 1 << 20) + "MB");
+            }
+            return this.contextBuilder.build();
+        }
+    }
+
+    private void initialize() {
+        initializeJsContext(this.getJsContext(), this);
+        for (var source : this.options.bootstrap) {
+            this.getJsContext().eval(source);
+        }
+        var bindings = this.getJsContext().getBindings("js");
+        this.baselineGlobals = Set.copyOf(bindings.getMemberKeys());
+        this.restoreBaseline = bindings.getMember("_snapshotGlobals").execute();
+    }
+
+    public <T> T eval(Supplier<T> f) {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        try {
+            return this.evalAsync(f).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void eval(Runnable f) {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        try {
+            this.evalAsync(f).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Value eval(String source) {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        return this.eval(() -> {
+            return this.getJsContext().eval("js", source);
+        });
+    }
+
+    public Value eval(Source source) {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        return this.eval(() -> {
+            return this.getJsContext().eval(source);
+        });
+    }
+
+    /**
+     * Deliver {@code data} to the handler registered for {@code key} on the
+     * event loop. If {@code key} has a {@link Mailbox}, this may block, drop
+     * a message or throw {@link Mailbox.MailboxFullException} when it is full.
+     */
+    public void sendMessage(Object key, Object data) {
+        var mailbox = this.mailboxes.get(key);
+        if (mailbox == null) {
+            this.eventLoop.post(() -> deliver(key, data));
+            return;
+        }
+        boolean idle;
+        try {
+            idle = mailbox.offer(data, Thread.currentThread().threadId() == this.eventLoop.threadId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (idle) {
+            this.eventLoop.post(() -> deliverFrom(mailbox, key));
+        }
+    }
+
+    private void deliverFrom(Mailbox mailbox, Object key) {
+        try {
+            var data = mailbox.poll();
+            if (data != Mailbox.EMPTY) {
+                deliver(key, data);
+            }
+        } finally {
+            if (mailbox.rescheduleDelivery()) {
+                this.eventLoop.post(() -> deliverFrom(mailbox, key));
+            }
+        }
+    }
+
+    private void deliver(Object key, Object data) {
+        var handler = this.eventLoop.getHandlers().get(key);
+        if (handler != null) {
+            var start = System.nanoTime();
+            try {
+                handler.accept(data);
+            } finally {
+                this.metrics.handler(key).record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Bound the messages queued for {@code key}, or make it unbounded again
+     * with a null {@code config}. Messages queued in a replaced mailbox are
+     * discarded, so configure it before messages are sent.
+     */
+    public void setMailbox(Object key, Mailbox.Config config) {
+        var previous = config == null ? this.mailboxes.remove(key)
+                : this.mailboxes.put(key, new Mailbox(key, config));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Number of messages waiting in the mailbox of {@code key}, 0 without one.
+     */
+    public int getMailboxSize(Object key) {
+        var mailbox = this.mailboxes.get(key);
+        return mailbox == null ? 0 : mailbox.size();
+    }
+
+    /**
+     * Number of messages the mailbox of {@code key} discarded.
+     */
+    public long getMailboxDropped(Object key) {
+        var mailbox = this.mailboxes.get(key);
+        return mailbox == null ? 0 : mailbox.dropped();
+    }
+
+    private void closeMailboxes() {
+        for (var key : List.copyOf(this.mailboxes.keySet())) {
+            setMailbox(key, null);
+        }
+    }
+
+    /**
+     * A snapshot of the event loop's metrics, callable from any thread.
+     */
+    public EventLoopMetrics.Snapshot getMetrics() {
+        return this.metrics.snapshot(this.eventLoop.queuedTasks(), this.eventLoop.scheduledTasks());
+    }
+
+    private void registerMBean() {
+        var eContext = this;
+        EventLoopMXBean mbean = new EventLoopMXBean() {
+            @Override
+            public int getQueuedTasks() {
+                return eContext.getMetrics().queuedTasks();
+            }
+
+            @Override
+            public int getScheduledTasks() {
+                return eContext.getMetrics().scheduledTasks();
+            }
+
+            @Override
+            public long getTaskCount() {
+                return eContext.metrics.tasks();
+            }
+
+            @Override
+            public double getUtilization() {
+                return eContext.getMetrics().utilization();
+            }
+
+            @Override
+            public long getQueueLatencyP99Nanos() {
+                return eContext.metrics.queueLatency.snapshot().percentileNanos(99);
+            }
+
+            @Override
+            public long getRunTimeP99Nanos() {
+                return eContext.metrics.runTime.snapshot().percentileNanos(99);
+            }
+
+            @Override
+            public long getRunTimeMaxNanos() {
+                return eContext.metrics.runTime.snapshot().maxNanos();
+            }
+
+            @Override
+            public long getTimerLatenessP99Nanos() {
+                return eContext.metrics.timerLateness.snapshot().percentileNanos(99);
+            }
+
+            @Override
+            public int getWorkerCount() {
+                return eContext.getMetrics().workers().size();
+            }
+
+            @Override
+            public long getMessagesToWorkers() {
+                return eContext.getMetrics().workers().values().stream()
+                        .mapToLong(EventLoopMetrics.WorkerTraffic::messagesSent).sum();
+            }
+
+            @Override
+            public long getMessagesFromWorkers() {
+                return eContext.getMetrics().workers().values().stream()
+                        .mapToLong(EventLoopMetrics.WorkerTraffic::messagesReceived).sum();
+            }
+        };
+        try {
+            var name = new ObjectName("net.coruscation.graaljs_event:type=EContext,id=" + this.id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+            this.mbeanName = name;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (this.mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.mbeanName);
+        } catch (JMException e) {
+            // already gone
+        }
+        this.mbeanName = null;
+    }
+
+    /**
+     * Install the worker globals ({@code self}, {@code postMessage},
+     * {@code onmessage}) of this context, on its event loop.
+     * Messages the worker posts go to {@code toParent}, which may throw a
+     * {@link Mailbox.MailboxFullException}.
+     */
+    void setupWorker(Consumer<StructuredClone.Message> toParent) {
+        Context workerJsContext = this.getJsContext();
+        workerJsContext.eval("js", "globalThis.self=globalThis");
+        Value bindings = workerJsContext.getBindings("js");
+        bindings.getMember("_setup_worker").execute();
+        var workerClone = this.getStructuredClone();
+        this.getEventLoop().putMessageHandler("self", (Object data) -> {
+            if (data instanceof StructuredClone.Batch batch) {
+                bindings.getMember("_onmessages").execute(workerClone.deserializeBatch(batch));
+                return;
+            }
+            var message = (StructuredClone.Message) data;
+            bindings.getMember("_onmessage").execute(workerClone.deserialize(message.data()), message.timeStamp(),
+                    workerClone.deserializePorts(message));
+        });
+        ProxyExecutable workerPostMessage = (Value... args) -> {
+            var transfer = args.length > 1 ? args[1] : null;
+            var message = workerClone.serialize(args[0], transfer);
+            try {
+                toParent.accept(message);
+            } catch (Mailbox.MailboxFullException e) {
+                return e.getMessage();
+            }
+            return null;
+        };
+        bindings.putMember("_postMessage", workerPostMessage);
+    }
+
+    private void checkTaskDuration(long maxNanos) {
+        var elapsed = this.eventLoop.runningFor();
+        if (elapsed > maxNanos) {
+            violate(ResourceViolation.Kind.TASK_DURATION,
+                    "A task ran for more than " + TimeUnit.NANOSECONDS.toMillis(maxNanos) + "ms");
+        }
+    }
+
+    /**
+     * Called on the event loop when a task or a microtask checkpoint threw,
+     * recognizes the cancellation of a context that exceeded a polyglot
+     * resource limit.
+     */
+    private void checkCancelled(RuntimeException e) {
+        if (!(e instanceof PolyglotException p) || !(p.isCancelled() || p.isResourceExhausted())
+                || this.violation.get() != null) {
+            return;
+        }
+        var message = String.valueOf(p.getMessage());
+        if (this.statementLimitReached) {
+            violate(ResourceViolation.Kind.STATEMENTS, message);
+        } else if (this.options.maxHeap > 0) {
+            violate(ResourceViolation.Kind.HEAP, message);
+        }
+    }
+
+    /**
+     * Report {@code kind} and cancel this context: the running task is
+     * stopped and the context shut down, which discards its timers and
+     * messages and terminates its workers. Callable from any thread, only
+     * the first violation counts.
+     */
+    void violate(ResourceViolation.Kind kind, String message) {
+        var violation = new ResourceViolation(kind, this, message);
+        if (!this.violation.compareAndSet(null, violation)) {
+            return;
+        }
+        var listener = this.options.violationListener;
+        if (listener != null) {
+            try {
+                listener.accept(violation);
+            } catch (RuntimeException e) {
+                // must not keep the context from being cancelled
+            }
+        }
+        cancelJsContext();
+        shutdownAsync();
+    }
+
+    /**
+     * Shut down without waiting for the running task, which is cancelled.
+     * Callable from any thread.
+     */
+    private void cancel() {
+        if (this.terminated.isDone()) {
+            return;
+        }
+        cancelJsContext();
+        shutdownAsync();
+    }
+
+    // stops the running task, so that the shutdown queued behind it runs
+    private void cancelJsContext() {
+        this.cancelled = true;
+        var jsContext = this.eventLoop.jsContext;
+        // waits for the running code to stop, which may be on this thread
+        Thread.ofVirtual().start(() -> {
+            try {
+                jsContext.close(true);
+            } catch (RuntimeException e) {
+                // already closed
+            }
+        });
+    }
+
+    /**
+     * The limit this context exceeded, or null.
+     */
+    public ResourceViolation getResourceViolation() {
+        return this.violation.get();
+    }
+
+    /**
+     * Completed once the context is closed.
+     */
+    CompletableFuture<Void> whenTerminated() {
+        return this.terminated;
+    }
+
+    /**
+     * Whether this context has no pending timers, queued messages, I/O or live
+     * workers, i.e. nothing will run on it unless new work is submitted.
+     */
+    public boolean isQuiescent() {
+        return this.eval(() -> {
+            return this.quiescent();
+        });
+    }
+
+    boolean quiescent() {
+        return this.eventLoop.pendingTasks() == 0 && this.workers.isEmpty() && this.ports.isEmpty()
+                && this.streams.isEmpty()
+                && (this.asyncIO == null || this.asyncIO.pending() == 0);
+    }
+
+    /**
+     * Remove the globals defined since initialization, and put back the
+     * globals, the properties of the objects they hold and the built-in
+     * prototypes that were changed, so the context can be handed to another
+     * user. Returns false if something could not be removed or restored (e.g.
+     * a top level {@code let} binding), in which case the context should not
+     * be reused.
+     */
+    boolean reset() {
+        return this.eval(() -> {
+            var bindings = this.getJsContext().getBindings("js");
+            // overwritten globals, properties of bootstrap objects and polluted prototypes
+            boolean clean = this.restoreBaseline.execute().asBoolean();
+            // what is left are top level let, const and class declarations
+            for (var key : bindings.getMemberKeys()) {
+                if (this.baselineGlobals.contains(key)) {
+                    continue;
+                }
+                try {
+                    clean &= bindings.removeMember(key);
+                } catch (UnsupportedOperationException e) {
+                    clean = false;
+                }
+            }
+            this.eventLoop.getHandlers().clear();
+            closeMailboxes();
+            return clean;
+        });
+    }
+
+    /**
+     * Close the underlying js context and stop the event loop thread. Pending
+     * timers and messages are discarded.
+     */
+    void shutdown() {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        try {
+            this.shutdownAsync().get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Close this context and, recursively, the workers it spawned: pending
+     * timers are cancelled, queued tasks and messages discarded, message
+     * ports and sockets closed and the js context and event loop thread
+     * released. Waits until everything is closed, including the task that
+     * is running, if any. Does nothing once closed.
+     */
+    @Override
+    public void close() {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        shutdownAsync();
+        try {
+            this.closed.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Like {@link #close()}, but first let the tasks and messages queued at
+     * the time run, for up to {@code drainTimeout}. Messages that arrive while
+     * draining run as well. A task still running at the deadline is
+     * cancelled, like one that exceeds a resource limit. Returns what was
+     * reclaimed.
+     */
+    public CloseReport close(Duration drainTimeout) {
+        if (Thread.currentThread().threadId() == this.eventLoop.threadId()) {
+            throw new IllegalThreadStateException();
+        }
+        try {
+            return this.closeAsync(drainTimeout).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Like {@link #close(Duration)} without waiting, callable from any
+     * thread.
+     */
+    public CompletableFuture<CloseReport> closeAsync(Duration drainTimeout) {
+        if (drainTimeout.isZero() || drainTimeout.isNegative()) {
+            cancel();
+            return this.closed;
+        }
+        synchronized (this.terminated) {
+            if (this.eventLoop.closing || this.draining) {
+                return this.closed;
+            }
+            this.draining = true;
+            // the tasks queued from now on are drained, a running one is not
+            this.drainedFrom = this.eventLoop.tasksRun;
+            // in case a task never returns
+            this.drainDeadline = Watchdog.executor.schedule(this::cancel, drainTimeout.toNanos(),
+                    TimeUnit.NANOSECONDS);
+        }
+        var deadline = System.nanoTime() + drainTimeout.toNanos();
+        try {
+            this.eventLoop.post(() -> {
+                // not one of the drained tasks
+                this.drainSteps++;
+                this.timersCancelled = this.eventLoop.cancelTimers();
+                drain(deadline);
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down in the meantime
+        }
+        return this.closed;
+    }
+
+    // runs after the tasks queued before it, until none are left
+    private void drain(long deadline) {
+        var idle = this.eventLoop.queuedTasks() == 0
+                && this.mailboxes.values().stream().allMatch(mailbox -> mailbox.size() == 0);
+        if (idle || System.nanoTime() - deadline >= 0) {
+            shutdownAsync();
+        } else {
+            this.eventLoop.post(() -> {
+                // not one of the drained tasks
+                this.drainSteps++;
+                drain(deadline);
+            });
+        }
+    }
+
+    /**
+     * Completed once the context and its workers' are closed.
+     */
+    CompletableFuture<CloseReport> whenClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Like {@link #shutdown()} without waiting. The context is closed once
+     * the task currently running on the event loop, if any, returns. Workers
+     * spawned by this context are terminated as well.
+     */
+    CompletableFuture<Void> shutdownAsync() {
+        synchronized (this.terminated) {
+            if (this.eventLoop.closing) {
+                return this.terminated;
+            }
+            this.eventLoop.closing = true;
+            if (this.drainDeadline != null) {
+                this.drainDeadline.cancel(false);
+            }
+        }
+        if (this.watchdog != null) {
+            this.watchdog.cancel(false);
+        }
+        var discardedMessages = 0;
+        for (var mailbox : this.mailboxes.values()) {
+            discardedMessages += mailbox.size();
+        }
+        // release producers blocked on our mailboxes
+        closeMailboxes();
+        var executor = this.eventLoop.getExecutor();
+        var discarded = discardedMessages;
+        try {
+            executor.execute(() -> {
+                var workerReports = new ArrayList<CompletableFuture<CloseReport>>();
+                var processWorkers = 0;
+                var portsClosed = 0;
+                var connectionsClosed = 0;
+                var timersCancelled = this.timersCancelled + this.eventLoop.cancelTimers();
+                var drained = this.drainedFrom < 0 ? 0 : this.eventLoop.tasksRun - this.drainedFrom - this.drainSteps;
+                var tasksDiscarded = discarded + this.eventLoop.discardTasks();
+                try {
+                    for (var worker : List.copyOf(this.workers)) {
+                        var workerContext = worker.workerEventContext;
+                        worker.terminate();
+                        if (workerContext != null) {
+                            workerReports.add(workerContext.whenClosed());
+                        } else {
+                            processWorkers++;
+                        }
+                    }
+                    for (var port : List.copyOf(this.ports)) {
+                        port.close();
+                        portsClosed++;
+                    }
+                    for (var end : List.copyOf(this.streams)) {
+                        end.stream().abort("The stream was closed along with its context");
+                        portsClosed++;
+                    }
+                    if (this.asyncIO != null) {
+                        connectionsClosed = this.asyncIO.closeAll();
+                    }
+                    unregisterMBean();
+                    var jsContext = this.getJsContext();
+                    try {
+                        this.eventLoop.leave();
+                        jsContext.close();
+                    } catch (RuntimeException e) {
+                        // a cancelled context may already be closed, see cancelJsContext()
+                        if (!this.cancelled) {
+                            throw e;
+                        }
+                    }
+                    this.terminated.complete(null);
+                } catch (Throwable t) {
+                    this.terminated.completeExceptionally(t);
+                } finally {
+                    executor.shutdownNow();
+                }
+                completeClosed(new CloseReport(timersCancelled, drained, tasksDiscarded, portsClosed,
+                        connectionsClosed, processWorkers, List.of()), workerReports);
+            });
+        } catch (RejectedExecutionException e) {
+            this.terminated.complete(null);
+            completeClosed(new CloseReport(0, 0, discarded, 0, 0, 0, List.of()), List.of());
+        }
+        return this.terminated;
+    }
+
+    // once the workers' contexts are closed too, whose report is left out if that failed
+    private void completeClosed(CloseReport report, List<CompletableFuture<CloseReport>> workerReports) {
+        var reports = workerReports.stream()
+                .map(future -> future.exceptionally(t -> null))
+                .toList();
+        CompletableFuture.allOf(reports.toArray(CompletableFuture[]::new)).thenRun(() -> {
+            var workers = reports.stream().map(CompletableFuture::join).filter(r -> r != null).toList();
+            if (this.ownsOptions) {
+                // the worker pool and its maintenance thread, nothing else builds from them
+                this.options.close();
+            }
+            this.closed.complete(new CloseReport(report.timersCancelled(), report.tasksDrained(),
+                    report.tasksDiscarded(), report.portsClosed(), report.connectionsClosed(),
+                    report.processWorkers(), workers));
+        });
+    }
+
+    /**
+     * Run {@code f} on the event loop without blocking the caller.
+     *
+     * Dependent actions registered on the returned future without an
+     * executor may run on the event loop thread, keep them short.
+     */
+    public CompletableFuture<Void> evalAsync(Runnable f) {
+        return this.evalAsync(() -> {
+            f.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run {@code f} on the event loop without blocking the caller.
+     *
+     * Dependent actions registered on the returned future without an
+     * executor may run on the event loop thread, keep them short.
+     */
+    public <T> CompletableFuture<T> evalAsync(Supplier<T> f) {
+        var future = new CompletableFuture<T>();
+        this.eventLoop.post(() -> {
+            try {
+                future.complete(f.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, future);
+        return future;
+    }
+
+    /**
+     * Evaluate {@code source} without blocking the caller. If the result is a
+     * Promise (or any thenable) the future completes when it settles.
+     *
+     * The resulting {@link Value} can only be used on the event loop, e.g.
+     * with {@link #eval(Supplier)}, use
+     * {@link #evalAsync(String, Function)} to get a host-safe result.
+     */
+    public CompletableFuture<Value> evalAsync(String source) {
+        return this.evalAsync(source, Function.identity());
+    }
+
+    /**
+     * See {@link #evalAsync(String)}.
+     */
+    public CompletableFuture<Value> evalAsync(Source source) {
+        return this.evalAsync(source, Function.identity());
+    }
+
+    /**
+     * Evaluate {@code source} without blocking the caller and convert the
+     * result, or the value its Promise resolves to, with {@code converter}.
+     * {@code converter} runs on the event loop, so it may access the
+     * {@link Value}, and should return an object that is safe to use from
+     * other threads (e.g. {@code Value::asString}).
+     */
+    public <T> CompletableFuture<T> evalAsync(String source, Function<Value, T> converter) {
+        return this.evalAsync(Source.create("js", source), converter);
+    }
+
+    /**
+     * See {@link #evalAsync(String, Function)}.
+     */
+    public <T> CompletableFuture<T> evalAsync(Source source, Function<Value, T> converter) {
+        var future = new CompletableFuture<T>();
+        this.eventLoop.post(() -> {
+            try {
+                settle(this.getJsContext().eval(source), converter, future);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, future);
+        return future;
+    }
+
+    /**
+     * Thrown through a future when the Promise it waits for is rejected with
+     * something that is not an error object.
+     */
+    public static class PromiseRejectedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PromiseRejectedException(String reason) {
+            super(reason);
+        }
+    }
+
+    static <T> void settle(Value result, Function<Value, T> converter, CompletableFuture<T> future) {
+        if (!result.hasMembers() || !result.hasMember("then") || !result.getMember("then").canExecute()) {
+            future.complete(converter.apply(result));
+            return;
+        }
+        ProxyExecutable onFulfilled = (Value... args) -> {
+            try {
+                future.complete(converter.apply(args.length > 0 ? args[0] : null));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+            return null;
+        };
+        ProxyExecutable onRejected = (Value... args) -> {
+            var reason = args.length > 0 ? args[0] : null;
+            if (reason != null && reason.isException()) {
+                try {
+                    throw reason.throwException();
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                    return null;
+                }
+            }
+            future.completeExceptionally(new PromiseRejectedException(String.valueOf(reason)));
+            return null;
+        };
+        result.invokeMember("then", onFulfilled, onRejected);
+    }
+
+    Context.Builder getContextBuilder() {
+        return contextBuilder;
+    }
+
+    StructuredClone getStructuredClone() {
+        return this.structuredClone;
+    }
+
+    Builder getOptions() {
+        return options;
+    }
+
+    /**
+     * The engine shared by this context and its workers, or {@code null} if
+     * every context owns a private engine.
+     */
+    public Engine getEngine() {
+        return options.getEngine();
     }
 
     Context getJsContext() {
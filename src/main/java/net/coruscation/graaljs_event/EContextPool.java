@@ -0,0 +1,266 @@
+package net.coruscation.graaljs_event;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A pool of initialized {@link EContext}s.
+ *
+ * Contexts are created ahead of time so that {@link #borrow()} does not pay for
+ * starting the event loop thread, building the js context and evaluating the
+ * bootstrap script. A returned context is recycled only if it is quiescent (no
+ * pending timers, messages or workers) and its globals could be reset,
+ * otherwise it is shut down.
+ *
+ * Note that top level {@code let}/{@code const}/{@code class} declarations
+ * cannot be removed from a js context, so a context that evaluated such a
+ * script is discarded rather than recycled. Evaluate ES modules or wrap scripts
+ * in a function to make the most of the pool.
+ */
+public class EContextPool implements AutoCloseable {
+
+    /**
+     * A snapshot of the pool's counters, intended for sizing the pool.
+     */
+    public record Metrics(long borrows, long hits, long misses, long recycled, long discarded, long evicted,
+            int idle, int active, long totalBorrowNanos, long maxBorrowNanos) {
+
+        /**
+         * Fraction of borrows served by an already initialized context.
+         */
+        public double hitRate() {
+            return borrows == 0 ? 0 : (double) hits / borrows;
+        }
+
+        public double averageBorrowNanos() {
+            return borrows == 0 ? 0 : (double) totalBorrowNanos / borrows;
+        }
+    }
+
+    private record Idle(EContext eContext, long idleSince) {
+    }
+
+    private static final Duration QUIESCENCE_CHECK_TIMEOUT = Duration.ofSeconds(1);
+
+    private final Supplier<EContext> factory;
+    private final int minIdle;
+    private final int maxSize;
+    private final Duration idleTimeout;
+
+    // Most recently returned contexts are at the head, eviction happens at the tail
+    private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    // Contexts handed out and not yet returned, each holds a permit
+    private final Set<EContext> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder recycled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder totalBorrowNanos = new LongAdder();
+    private final AtomicLong maxBorrowNanos = new AtomicLong();
+
+    public EContextPool(EContext.Builder builder, int minIdle, int maxSize, Duration idleTimeout) {
+        this(builder::build, minIdle, maxSize, idleTimeout);
+    }
+
+    public EContextPool(Supplier<EContext> factory, int minIdle, int maxSize, Duration idleTimeout) {
+        if (minIdle < 0 || maxSize < 1 || minIdle > maxSize || idleTimeout.isNegative() || idleTimeout.isZero()) {
+            throw new IllegalArgumentException();
+        }
+        this.factory = factory;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(maxSize, true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "EContextPool maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fill();
+        var period = Math.max(idleTimeout.toMillis() / 2, 1);
+        this.maintenance.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a context, blocking while {@code maxSize} contexts are in use.
+     */
+    public EContext borrow() {
+        var start = System.nanoTime();
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return take(start);
+    }
+
+    /**
+     * Borrow a context, waiting at most {@code timeout} for one to be returned
+     * while {@code maxSize} contexts are in use.
+     */
+    public EContext borrow(Duration timeout) throws TimeoutException {
+        var start = System.nanoTime();
+        try {
+            if (!this.permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return take(start);
+    }
+
+    private EContext take(long start) {
+        if (this.closed) {
+            this.permits.release();
+            throw new IllegalStateException("EContextPool is closed");
+        }
+        EContext eContext;
+        var entry = this.idle.pollFirst();
+        try {
+            if (entry != null) {
+                this.hits.increment();
+                eContext = entry.eContext();
+            } else {
+                this.misses.increment();
+                eContext = this.factory.get();
+            }
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+        this.borrowed.add(eContext);
+        var elapsed = System.nanoTime() - start;
+        this.borrows.increment();
+        this.totalBorrowNanos.add(elapsed);
+        this.maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+        return eContext;
+    }
+
+    /**
+     * Return a borrowed context. It is recycled if it is quiescent and could be
+     * reset, otherwise it is shut down. Throws if it is not borrowed from this
+     * pool, e.g. because it was returned already.
+     */
+    public void release(EContext eContext) {
+        giveBack(eContext);
+        try {
+            if (!this.closed && isReusable(eContext)) {
+                this.idle.offerFirst(new Idle(eContext, System.nanoTime()));
+                this.recycled.increment();
+            } else {
+                discard(eContext);
+            }
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Return a borrowed context that must not be reused.
+     */
+    public void invalidate(EContext eContext) {
+        giveBack(eContext);
+        try {
+            discard(eContext);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    private void giveBack(EContext eContext) {
+        if (!this.borrowed.remove(eContext)) {
+            throw new IllegalArgumentException("EContext is not borrowed from this pool");
+        }
+    }
+
+    private boolean isReusable(EContext eContext) {
+        try {
+            var quiescent = eContext.evalAsync(() -> {
+                return eContext.quiescent();
+            }).get(QUIESCENCE_CHECK_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            return quiescent && eContext.reset();
+        } catch (InterruptedException | ExecutionException | TimeoutException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void discard(EContext eContext) {
+        this.discarded.increment();
+        // do not wait, the caller may be an event loop itself
+        eContext.shutdownAsync();
+    }
+
+    private void fill() {
+        while (!this.closed && this.idle.size() < this.minIdle
+                && this.idle.size() + active() < this.maxSize) {
+            this.idle.offerLast(new Idle(this.factory.get(), System.nanoTime()));
+        }
+    }
+
+    private void maintain() {
+        try {
+            var deadline = System.nanoTime() - this.idleTimeout.toNanos();
+            while (this.idle.size() > this.minIdle) {
+                var oldest = this.idle.peekLast();
+                if (oldest == null || oldest.idleSince() - deadline > 0 || !this.idle.removeLastOccurrence(oldest)) {
+                    break;
+                }
+                this.evicted.increment();
+                discard(oldest.eContext());
+            }
+            fill();
+        } catch (RuntimeException e) {
+            // keep the maintenance task scheduled, it is retried on the next run
+        }
+    }
+
+    private int active() {
+        return this.maxSize - this.permits.availablePermits();
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(this.borrows.sum(), this.hits.sum(), this.misses.sum(), this.recycled.sum(),
+                this.discarded.sum(), this.evicted.sum(), this.idle.size(), active(),
+                this.totalBorrowNanos.sum(), this.maxBorrowNanos.get());
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Shut down every idle context. Contexts that are still borrowed are shut
+     * down when they are released.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.maintenance.shutdownNow();
+        Idle entry;
+        while ((entry = this.idle.pollFirst()) != null) {
+            discard(entry.eContext());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package net.coruscation.graaljs_event;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the event loops of many {@link EContext}s on a fixed number of
+ * threads, instead of a thread per context, see
+ * {@link EContext.Builder#scheduler(Tenant)}.
+ *
+ * Contexts belong to {@link Tenant}s. A context with work is dispatched to a
+ * free thread, which enters its js context, runs its tasks for up to one
+ * quantum and leaves it again, so a context is only ever used by one thread
+ * at a time and the OS never has more runnable event loops than cores.
+ *
+ * Tenants of the highest {@link Tenant#priority() priority} with work go
+ * first. Within a priority, threads are shared by weighted fair queuing: each
+ * tenant has a virtual time that advances by the time its contexts ran
+ * divided by its weight, and the tenant that is furthest behind runs next.
+ * Over time a busy tenant of weight 2 gets twice the threads of a busy
+ * tenant of weight 1, however many contexts or tasks either has. A tenant
+ * that was idle resumes at the current virtual time, it does not get to
+ * catch up. Lower priorities only run when higher ones leave threads idle.
+ *
+ * Timers of every context are kept by one shared timer thread, which only
+ * queues them on their context.
+ *
+ * A task that blocks holds a scheduler thread: blocking calls such as
+ * {@link EContext#eval(java.util.function.Supplier)} on another context of
+ * the same scheduler can deadlock once every thread waits.
+ */
+public final class EContextScheduler implements AutoCloseable {
+
+    static final Duration DEFAULT_QUANTUM = Duration.ofMillis(10);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final AtomicLong ids = new AtomicLong();
+
+    private final long quantumNanos;
+    private final List<Tenant> tenants = new CopyOnWriteArrayList<>();
+    // keeps the timers of every context, see TenantExecutor
+    final ScheduledThreadPoolExecutor timer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = this.lock.newCondition();
+    // tenants with contexts to run, guarded by lock
+    private final PriorityQueue<Tenant> readyTenants = new PriorityQueue<>(
+            Comparator.comparingInt((Tenant tenant) -> -tenant.priority)
+                    .thenComparingDouble(tenant -> tenant.virtualTime)
+                    .thenComparingLong(tenant -> tenant.readySince));
+    private double virtualClock = 0;
+    private long readyCount = 0;
+    private boolean closed = false;
+
+    private EContextScheduler(int threads, Duration quantum) {
+        if (threads <= 0 || quantum.isNegative() || quantum.isZero()) {
+            throw new IllegalArgumentException();
+        }
+        this.quantumNanos = quantum.toNanos();
+        var id = ids.incrementAndGet();
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().daemon().name("EContextScheduler-" + id + " timer").factory());
+        // cancelled timers must not count as pending work, see EContext#isQuiescent()
+        this.timer.setRemoveOnCancelPolicy(true);
+        var factory = Thread.ofPlatform().daemon().name("EContextScheduler-" + id + "-", 0).factory();
+        for (int i = 0; i < threads; i++) {
+            factory.newThread(this::work).start();
+        }
+    }
+
+    /**
+     * A scheduler with a thread per available processor.
+     */
+    public static EContextScheduler create() {
+        return create(Runtime.getRuntime().availableProcessors(), DEFAULT_QUANTUM);
+    }
+
+    /**
+     * A scheduler with {@code threads} threads, that runs a context for up to
+     * {@code quantum} before it moves on to the next one. A long task is not
+     * interrupted, its context just goes to the back of the queue after it.
+     */
+    public static EContextScheduler create(int threads, Duration quantum) {
+        return new EContextScheduler(threads, quantum);
+    }
+
+    /**
+     * Add a tenant, with a {@code weight} of at least 1 and a
+     * {@code priority}, higher runs first.
+     */
+    public Tenant newTenant(String name, int weight, int priority) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1");
+        }
+        var tenant = new Tenant(this, name, weight, priority);
+        this.tenants.add(tenant);
+        return tenant;
+    }
+
+    public List<Tenant> getTenants() {
+        return List.copyOf(this.tenants);
+    }
+
+    /**
+     * Stop the threads once they finished their current slice. Contexts
+     * still on this scheduler no longer run, shut them down first.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.ready.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        this.timer.shutdownNow();
+    }
+
+    /**
+     * Queue {@code executor} for a slice, called once each time it goes from
+     * idle to having work.
+     */
+    void ready(TenantExecutor executor) {
+        this.lock.lock();
+        try {
+            var tenant = executor.tenant;
+            tenant.runQueue.add(executor);
+            if (!tenant.queued) {
+                enqueue(tenant);
+            }
+            this.ready.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // guarded by lock
+    private void enqueue(Tenant tenant) {
+        if (!tenant.running()) {
+            // no credit for the time it was idle
+            tenant.virtualTime = Math.max(tenant.virtualTime, this.virtualClock);
+        }
+        tenant.readySince = this.readyCount++;
+        tenant.queued = true;
+        this.readyTenants.add(tenant);
+    }
+
+    private void work() {
+        while (true) {
+            TenantExecutor executor;
+            Tenant tenant;
+            this.lock.lock();
+            try {
+                while (this.readyTenants.isEmpty() && !this.closed) {
+                    this.ready.awaitUninterruptibly();
+                }
+                if (this.closed) {
+                    return;
+                }
+                tenant = this.readyTenants.poll();
+                tenant.queued = false;
+                this.virtualClock = Math.max(this.virtualClock, tenant.virtualTime);
+                executor = tenant.runQueue.poll();
+                tenant.slicesRunning++;
+                // another thread may run another of its contexts meanwhile
+                if (!tenant.runQueue.isEmpty()) {
+                    enqueue(tenant);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+
+            var cpuStart = cpuTime();
+            var start = System.nanoTime();
+            var more = executor.runSlice(this.quantumNanos);
+            var elapsed = System.nanoTime() - start;
+            var cpu = cpuStart < 0 ? elapsed : cpuTime() - cpuStart;
+            tenant.runNanos.addAndGet(elapsed);
+            tenant.cpuNanos.addAndGet(cpu);
+            tenant.slices.incrementAndGet();
+
+            this.lock.lock();
+            try {
+                tenant.slicesRunning--;
+                if (tenant.queued) {
+                    this.readyTenants.remove(tenant);
+                }
+                tenant.virtualTime += (double) elapsed / tenant.weight;
+                if (tenant.queued) {
+                    this.readyTenants.add(tenant);
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (more) {
+                ready(executor);
+            }
+        }
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * A share of a scheduler's threads, for the contexts built with
+     * {@link EContext.Builder#scheduler(Tenant)}. Time is accounted per
+     * tenant; give a context its own tenant to account for it, or to give it
+     * its own weight or priority.
+     */
+    public static final class Tenant {
+        final EContextScheduler scheduler;
+        private final String name;
+        private final int weight;
+        private final int priority;
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong runNanos = new AtomicLong();
+        private final AtomicLong slices = new AtomicLong();
+
+        // guarded by the scheduler's lock
+        private final ArrayDeque<TenantExecutor> runQueue = new ArrayDeque<>();
+        private boolean queued = false;
+        private int slicesRunning = 0;
+        private double virtualTime = 0;
+        private long readySince = 0;
+
+        private Tenant(EContextScheduler scheduler, String name, int weight, int priority) {
+            this.scheduler = scheduler;
+            this.name = name;
+            this.weight = weight;
+            this.priority = priority;
+        }
+
+        private boolean running() {
+            return this.slicesRunning > 0;
+        }
+
+        public String name() {
+            return this.name;
+        }
+
+        public int weight() {
+            return this.weight;
+        }
+
+        public int priority() {
+            return this.priority;
+        }
+
+        /**
+         * CPU time the tenant's contexts used on scheduler threads, their
+         * {@link #runTime()} where the JVM does not measure thread CPU time.
+         */
+        public Duration cpuTime() {
+            return Duration.ofNanos(this.cpuNanos.get());
+        }
+
+        /**
+         * Wall clock time the tenant's contexts held scheduler threads, what
+         * its fair share is measured in.
+         */
+        public Duration runTime() {
+            return Duration.ofNanos(this.runNanos.get());
+        }
+
+        /**
+         * Number of times one of its contexts was dispatched.
+         */
+        public long slices() {
+            return this.slices.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Tenant(" + this.name + ")";
+        }
+    }
+}
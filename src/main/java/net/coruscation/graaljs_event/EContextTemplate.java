@@ -0,0 +1,132 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.graalvm.polyglot.Source;
+
+/**
+ * Stamps out fully initialized contexts: {@code webworker.js}, the host
+ * bindings and the application's own {@link EContext.Builder#bootstrap
+ * bootstrap} sources.
+ *
+ * A JVM can not copy a js heap, so a context is never cloned. Instead every
+ * context shares one engine, in which the bootstrap sources were parsed (and,
+ * as they get hot, compiled) by the first context, so the others only run
+ * them. On top of that {@code prewarmed} contexts are kept ready by a
+ * background thread, so {@link #newContext()} usually only takes one from a
+ * queue. Native images can additionally pre-initialize the js context itself
+ * at build time, see README.
+ *
+ * Unlike an {@link EContextPool}, contexts are handed out for good: whoever
+ * takes one shuts it down.
+ */
+public final class EContextTemplate implements AutoCloseable {
+
+    private final EContext.Builder builder;
+    private final int prewarmed;
+    private final LinkedBlockingQueue<EContext> ready = new LinkedBlockingQueue<>();
+    private final ExecutorService filler = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().daemon().name("EContextTemplate filler").factory());
+    private final AtomicBoolean filling = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    private EContextTemplate(EContext.Builder builder, int prewarmed) {
+        this.builder = builder;
+        this.prewarmed = prewarmed;
+    }
+
+    /**
+     * A template for contexts built from {@code builder} that additionally
+     * evaluate {@code bootstrap}. The first context is built right away, so
+     * errors in the bootstrap sources are thrown here, and is the first one
+     * handed out.
+     *
+     * {@code builder} itself is changed: {@code bootstrap} is appended to its
+     * {@link EContext.Builder#bootstrap bootstrap} sources, which turns on
+     * its shared engine, so other contexts built from it evaluate them too.
+     */
+    public static EContextTemplate create(EContext.Builder builder, List<Source> bootstrap, int prewarmed) {
+        if (prewarmed < 0) {
+            throw new IllegalArgumentException();
+        }
+        var sources = new ArrayList<>(builder.getBootstrap());
+        sources.addAll(bootstrap);
+        var template = new EContextTemplate(builder.bootstrap(sources), prewarmed);
+        template.ready.add(builder.build());
+        template.fill();
+        return template;
+    }
+
+    /**
+     * A new context, initialized like the template says.
+     */
+    public EContext newContext() {
+        if (this.closed) {
+            throw new IllegalStateException("EContextTemplate is closed");
+        }
+        var eContext = this.ready.poll();
+        fill();
+        return eContext != null ? eContext : this.builder.build();
+    }
+
+    /**
+     * Number of contexts ready to be handed out.
+     */
+    public int getReady() {
+        return this.ready.size();
+    }
+
+    private void fill() {
+        if (this.ready.size() >= this.prewarmed || !this.filling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.filler.execute(() -> {
+                var failed = false;
+                try {
+                    while (!this.closed && this.ready.size() < this.prewarmed) {
+                        this.ready.add(this.builder.build());
+                    }
+                } catch (RuntimeException e) {
+                    // contexts are built on demand meanwhile, the next newContext() tries again
+                    failed = true;
+                } finally {
+                    this.filling.set(false);
+                }
+                if (this.closed) {
+                    discardReady();
+                } else if (!failed) {
+                    // taken after the last check of the loop
+                    fill();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            this.filling.set(false);
+        }
+    }
+
+    private void discardReady() {
+        EContext eContext;
+        while ((eContext = this.ready.poll()) != null) {
+            eContext.shutdownAsync();
+        }
+    }
+
+    /**
+     * Shut down the contexts that are ready. Contexts already handed out are
+     * not affected.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.filler.shutdown();
+        discardReady();
+    }
+}
@@ -0,0 +1,57 @@
+package net.coruscation.graaljs_event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events of the event loop. They are disabled by default, enable them in
+ * the recording settings, e.g.
+ * {@code -XX:StartFlightRecording:net.coruscation.graaljs_event.Task#enabled=true}.
+ */
+final class EventLoopEvents {
+
+    private EventLoopEvents() {
+    }
+
+    @Name("net.coruscation.graaljs_event.Task")
+    @Label("Event Loop Task")
+    @Description("A macrotask run on an EContext event loop")
+    @Category({ "GraalJS", "Event Loop" })
+    @Enabled(false)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Task extends Event {
+        @Label("Context")
+        long contextId;
+
+        @Label("Kind")
+        @Description("task for evaluations and messages, timer for timers")
+        String kind;
+
+        @Label("Queue Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueLatency;
+    }
+
+    @Name("net.coruscation.graaljs_event.TimerLateness")
+    @Label("Late Timer")
+    @Description("A timer that started later than its deadline")
+    @Category({ "GraalJS", "Event Loop" })
+    @Enabled(false)
+    @StackTrace(false)
+    static final class TimerLateness extends Event {
+        @Label("Context")
+        long contextId;
+
+        @Label("Lateness")
+        @Timespan(Timespan.NANOSECONDS)
+        long lateness;
+    }
+}
@@ -0,0 +1,33 @@
+package net.coruscation.graaljs_event;
+
+/**
+ * JMX view of an {@link EContext}'s event loop, registered as
+ * {@code net.coruscation.graaljs_event:type=EContext,id=<n>} when
+ * {@link EContext.Builder#jmx(boolean)} is enabled. Durations are in
+ * nanoseconds, percentiles are approximate, see
+ * {@link EventLoopMetrics.Histogram#percentileNanos(double)}.
+ */
+public interface EventLoopMXBean {
+
+    int getQueuedTasks();
+
+    int getScheduledTasks();
+
+    long getTaskCount();
+
+    double getUtilization();
+
+    long getQueueLatencyP99Nanos();
+
+    long getRunTimeP99Nanos();
+
+    long getRunTimeMaxNanos();
+
+    long getTimerLatenessP99Nanos();
+
+    int getWorkerCount();
+
+    long getMessagesToWorkers();
+
+    long getMessagesFromWorkers();
+}
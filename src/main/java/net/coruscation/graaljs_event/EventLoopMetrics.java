@@ -0,0 +1,194 @@
+package net.coruscation.graaljs_event;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Instrumentation of one {@link EContext}'s event loop, see
+ * {@link EContext#getMetrics()}.
+ *
+ * Latencies and run times are recorded on the event loop thread only, into
+ * histograms with power of two buckets, so recording costs a couple of
+ * {@link System#nanoTime()} calls and no locking. They can be read from any
+ * thread; a snapshot taken while the loop is running may be off by the task
+ * in flight.
+ */
+public final class EventLoopMetrics {
+
+    /**
+     * Durations in nanoseconds. {@code buckets[i]} counts the values in
+     * {@code [2^(i-1), 2^i)}, {@code buckets[0]} the zeros.
+     */
+    public record Histogram(long count, long totalNanos, long maxNanos, long[] buckets) {
+
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Upper bound of the bucket holding the {@code percentile}
+         * ({@code 0..100}) value, at most a factor of two above the exact one.
+         */
+        public long percentileNanos(double percentile) {
+            var rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : Math.min((1L << i) - 1, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram[count=" + count + ", mean=" + (long) meanNanos() + "ns, p99="
+                    + percentileNanos(99) + "ns, max=" + maxNanos + "ns]";
+        }
+    }
+
+    /**
+     * Messages between a context and one of its workers, with the estimated
+     * size of their structured clones.
+     */
+    public record WorkerTraffic(long messagesSent, long bytesSent, long messagesReceived, long bytesReceived) {
+    }
+
+    /**
+     * @param queuedTasks      macrotasks posted but not started
+     * @param scheduledTasks   tasks waiting on the executor, including timers
+     *                         of the {@code EXECUTOR} backend
+     * @param tasks            macrotasks run so far
+     * @param queueLatency     time from posting a macrotask to its start
+     * @param runTime          time spent in a macrotask, including its
+     *                         microtask checkpoint
+     * @param timerLateness    time a timer started after its deadline
+     * @param handlers         run time of message handlers, by handler key
+     * @param workers          message traffic, by live worker
+     * @param busyNanos        total time spent running macrotasks
+     * @param uptimeNanos      time since the event loop started
+     */
+    public record Snapshot(int queuedTasks, int scheduledTasks, long tasks, Histogram queueLatency,
+            Histogram runTime, Histogram timerLateness, Map<String, Histogram> handlers,
+            Map<String, WorkerTraffic> workers, long busyNanos, long uptimeNanos) {
+
+        /**
+         * Fraction of time spent running tasks since the loop started.
+         */
+        public double utilization() {
+            return uptimeNanos == 0 ? 0 : (double) busyNanos / uptimeNanos;
+        }
+
+        /**
+         * Fraction of time spent running tasks between {@code earlier} and
+         * this snapshot.
+         */
+        public double utilizationSince(Snapshot earlier) {
+            var elapsed = uptimeNanos - earlier.uptimeNanos;
+            return elapsed <= 0 ? 0 : (double) (busyNanos - earlier.busyNanos) / elapsed;
+        }
+    }
+
+    /**
+     * Single writer histogram, written on the event loop thread.
+     */
+    static final class Recorder {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            var i = 64 - Long.numberOfLeadingZeros(nanos);
+            this.buckets.lazySet(Math.min(i, 63), this.buckets.get(Math.min(i, 63)) + 1);
+            this.total.lazySet(this.total.get() + nanos);
+            if (nanos > this.max.get()) {
+                this.max.lazySet(nanos);
+            }
+        }
+
+        Histogram snapshot() {
+            var counts = new long[this.buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = this.buckets.get(i);
+            }
+            return new Histogram(Arrays.stream(counts).sum(), this.total.get(), this.max.get(), counts);
+        }
+    }
+
+    /**
+     * Written by both the parent's and the worker's event loop.
+     */
+    static final class Traffic {
+        final LongAdder messagesSent = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder messagesReceived = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+
+        void sent(long bytes) {
+            this.messagesSent.increment();
+            this.bytesSent.add(bytes);
+        }
+
+        void received(long bytes) {
+            this.messagesReceived.increment();
+            this.bytesReceived.add(bytes);
+        }
+
+        WorkerTraffic snapshot() {
+            return new WorkerTraffic(this.messagesSent.sum(), this.bytesSent.sum(),
+                    this.messagesReceived.sum(), this.bytesReceived.sum());
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    final Recorder queueLatency = new Recorder();
+    final Recorder runTime = new Recorder();
+    final Recorder timerLateness = new Recorder();
+    private final Map<String, Recorder> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Traffic> workers = new ConcurrentHashMap<>();
+
+    void taskRun(long nanos) {
+        this.runTime.record(nanos);
+        this.tasks.lazySet(this.tasks.get() + 1);
+        this.busyNanos.lazySet(this.busyNanos.get() + nanos);
+    }
+
+    Recorder handler(Object key) {
+        return this.handlers.computeIfAbsent(String.valueOf(key), k -> new Recorder());
+    }
+
+    void removeHandler(Object key) {
+        this.handlers.remove(String.valueOf(key));
+    }
+
+    Traffic worker(Object key) {
+        return this.workers.computeIfAbsent(String.valueOf(key), k -> new Traffic());
+    }
+
+    void removeWorker(Object key) {
+        this.workers.remove(String.valueOf(key));
+    }
+
+    long tasks() {
+        return this.tasks.get();
+    }
+
+    Snapshot snapshot(int queuedTasks, int scheduledTasks) {
+        return new Snapshot(queuedTasks, scheduledTasks, this.tasks.get(), this.queueLatency.snapshot(),
+                this.runTime.snapshot(), this.timerLateness.snapshot(),
+                this.handlers.entrySet().stream()
+                        .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> e.getValue().snapshot())),
+                this.workers.entrySet().stream()
+                        .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> e.getValue().snapshot())),
+                this.busyNanos.get(), System.nanoTime() - this.startNanos);
+    }
+}
@@ -0,0 +1,39 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules every timer on the event loop's executor. Insert and cancel are
+ * O(log n) in the number of pending timers.
+ */
+class ExecutorTimers implements Timers {
+
+    private final ScheduledExecutorService executor;
+    private final Executor dispatch;
+
+    ExecutorTimers(ScheduledExecutorService executor, Executor dispatch) {
+        this.executor = executor;
+        this.dispatch = dispatch;
+    }
+
+    private record FutureTimeout(ScheduledFuture<?> future) implements Timeout {
+        @Override
+        public boolean cancel() {
+            return future.cancel(false);
+        }
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delayNanos) {
+        return new FutureTimeout(executor.schedule(() -> dispatch.execute(task), delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public int pending() {
+        // timers live in the executor queue, see EventLoop.pendingTasks()
+        return 0;
+    }
+}
@@ -0,0 +1,179 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel (Varghese &amp; Lauck) with O(1) insert and cancel.
+ *
+ * Time is divided into ticks of {@code tickNanos}. A timer lands in bucket
+ * {@code deadlineTick % wheelSize} with the number of full revolutions left
+ * before it is due. The wheel is advanced by a periodic task on the event loop
+ * executor that only runs while timers are pending, so an idle loop is not
+ * woken up every tick. Timers fire on the first tick at or after their
+ * deadline, i.e. up to one tick late, never early.
+ *
+ * Not thread safe: everything runs on the event loop thread.
+ */
+class HashedWheelTimers implements Timers {
+
+    private final class Node implements Timeout {
+        final Runnable task;
+        long remainingRounds;
+        Node prev;
+        Node next;
+        Bucket bucket;
+        // expired but not run yet, it can still be cancelled by an earlier task
+        boolean expired = false;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (expired) {
+                expired = false;
+                return true;
+            }
+            if (bucket == null) {
+                return false;
+            }
+            bucket.remove(this);
+            onRemoved();
+            return true;
+        }
+    }
+
+    private static final class Bucket {
+        Node head;
+        Node tail;
+
+        void add(Node node) {
+            node.bucket = this;
+            if (tail == null) {
+                head = tail = node;
+            } else {
+                tail.next = node;
+                node.prev = tail;
+                tail = node;
+            }
+        }
+
+        void remove(Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                tail = node.prev;
+            }
+            node.prev = node.next = null;
+            node.bucket = null;
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Executor dispatch;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+
+    // The next tick to be processed
+    private long currentTick = 0;
+    private int pending = 0;
+    private ScheduledFuture<?> ticker;
+
+    HashedWheelTimers(ScheduledExecutorService executor, Executor dispatch, long tickNanos, int wheelSize) {
+        if (tickNanos <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.dispatch = dispatch;
+        this.tickNanos = tickNanos;
+        var size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new Bucket[Math.max(size, 1)];
+        for (int i = 0; i < this.wheel.length; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = this.wheel.length - 1;
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delayNanos) {
+        var node = new Node(task);
+        var elapsed = System.nanoTime() - startNanos;
+        if (pending == 0) {
+            // the wheel is empty, skip the ticks that passed while idle
+            currentTick = Math.max(currentTick, elapsed / tickNanos);
+        }
+        // round up so a timer never fires before its deadline
+        var deadlineTick = Math.max(ceilDiv(elapsed + Math.max(delayNanos, 0), tickNanos), currentTick);
+        node.remainingRounds = (deadlineTick - currentTick) / wheel.length;
+        wheel[(int) (deadlineTick & mask)].add(node);
+        if (pending++ == 0) {
+            ticker = executor.scheduleAtFixedRate(this::advance, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        }
+        return node;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+    private void onRemoved() {
+        if (--pending == 0 && ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+
+    /**
+     * Process every tick that is due, catching up if the loop was busy.
+     */
+    void advance() {
+        var elapsed = System.nanoTime() - startNanos;
+        var expired = new ArrayList<Node>();
+        while (pending > 0 && currentTick * tickNanos <= elapsed) {
+            var bucket = wheel[(int) (currentTick & mask)];
+            var node = bucket.head;
+            while (node != null) {
+                var next = node.next;
+                if (node.remainingRounds <= 0) {
+                    bucket.remove(node);
+                    onRemoved();
+                    node.expired = true;
+                    expired.add(node);
+                } else {
+                    node.remainingRounds--;
+                }
+                node = next;
+            }
+            currentTick++;
+        }
+        // run after the wheel is consistent, tasks may schedule new timers
+        for (var node : expired) {
+            if (!node.expired) {
+                continue;
+            }
+            node.expired = false;
+            dispatch.execute(node.task);
+        }
+    }
+
+    @Override
+    public int pending() {
+        return pending;
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+}
@@ -0,0 +1,194 @@
+package net.coruscation.graaljs_event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Value;
+
+/**
+ * HTML timer semantics for {@code setTimeout}, {@code setInterval} and
+ * {@code setImmediate}, on top of an event loop's {@link Timers}.
+ *
+ * Timers created by timer callbacks nest. From the sixth level on, delays
+ * below 4ms are clamped to 4ms like browsers do; every run of an interval
+ * counts as one level deeper, so {@code setInterval(f, 0)} settles at 4ms.
+ * Delays are whole milliseconds.
+ *
+ * With high resolution timers, delays are fractional milliseconds, nothing
+ * is clamped, and a timer is armed {@link #SPIN_NANOS} early and spins until
+ * its deadline, trading that much event loop time for sub-millisecond
+ * accuracy.
+ *
+ * Intervals run at a {@link EContext.IntervalMode#FIXED_RATE fixed rate}
+ * by default: run {@code k} is due {@code k} periods after the interval was
+ * set, however late earlier runs started or long they took, so lateness does
+ * not accumulate. Runs missed entirely are skipped rather than run in a
+ * burst. {@link EContext.IntervalMode#FIXED_DELAY} waits a period after the
+ * end of each run instead.
+ *
+ * Only used on the event loop thread.
+ */
+final class JsTimers {
+
+    static final int MAX_NESTING_LEVEL = 5;
+    static final long MIN_NESTED_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+    static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // like browsers, delays do not go beyond a signed 32 bit number of ms
+    private static final double MAX_DELAY_MILLIS = Integer.MAX_VALUE;
+
+    private final Timers timers;
+    private final Executor post;
+    private final EContext.IntervalMode intervalMode;
+    private final boolean highResolution;
+    // nesting level of the running timer callback, 0 outside of timers
+    private int nestingLevel = 0;
+
+    JsTimers(Timers timers, Executor post, EContext.IntervalMode intervalMode, boolean highResolution) {
+        this.timers = timers;
+        this.post = post;
+        this.intervalMode = intervalMode;
+        this.highResolution = highResolution;
+    }
+
+    /**
+     * The delay argument of a timer function in nanoseconds. Anything but a
+     * positive number is 0.
+     */
+    long delayNanos(Value delay) {
+        if (delay == null || !delay.isNumber()) {
+            return 0;
+        }
+        var millis = delay.asDouble();
+        if (!(millis > 0)) {
+            return 0;
+        }
+        millis = Math.min(this.highResolution ? millis : Math.floor(millis), MAX_DELAY_MILLIS);
+        return (long) (millis * 1_000_000);
+    }
+
+    Timers.Timeout setTimeout(Runnable task, long delayNanos) {
+        var level = this.nestingLevel + 1;
+        var delay = clamp(delayNanos, level);
+        var deadline = System.nanoTime() + delay;
+        return schedule(() -> runNested(task, level, deadline), delay);
+    }
+
+    Timers.Timeout setInterval(Runnable task, long periodNanos) {
+        return new Interval(task, Math.max(periodNanos, 0), this.nestingLevel + 1);
+    }
+
+    /**
+     * Run {@code task} as a macrotask of its own, after the tasks already
+     * queued and without waiting for the timers.
+     */
+    Timers.Timeout setImmediate(Runnable task) {
+        var immediate = new Immediate();
+        this.post.execute(() -> {
+            if (!immediate.done) {
+                immediate.done = true;
+                task.run();
+            }
+        });
+        return immediate;
+    }
+
+    private long clamp(long delayNanos, int level) {
+        delayNanos = Math.max(delayNanos, 0);
+        if (!this.highResolution && level > MAX_NESTING_LEVEL) {
+            return Math.max(delayNanos, MIN_NESTED_DELAY_NANOS);
+        }
+        return delayNanos;
+    }
+
+    private Timers.Timeout schedule(Runnable task, long delayNanos) {
+        if (this.highResolution) {
+            delayNanos = Math.max(delayNanos - SPIN_NANOS, 0);
+        }
+        return this.timers.schedule(task, delayNanos);
+    }
+
+    private void runNested(Runnable task, int level, long deadline) {
+        if (this.highResolution) {
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        }
+        var outer = this.nestingLevel;
+        this.nestingLevel = level;
+        try {
+            task.run();
+        } finally {
+            this.nestingLevel = outer;
+        }
+    }
+
+    private static final class Immediate implements Timers.Timeout {
+        boolean done = false;
+
+        @Override
+        public boolean cancel() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+    }
+
+    private final class Interval implements Timers.Timeout {
+        private final Runnable task;
+        private final long periodNanos;
+        private int level;
+        private long deadline;
+        private Timers.Timeout current;
+        private boolean cancelled = false;
+
+        Interval(Runnable task, long periodNanos, int level) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.level = level;
+            var delay = clamp(periodNanos, level);
+            this.deadline = System.nanoTime() + delay;
+            this.current = schedule(this::run, delay);
+        }
+
+        private void run() {
+            if (this.cancelled) {
+                return;
+            }
+            var level = this.level++;
+            if (intervalMode == EContext.IntervalMode.FIXED_RATE) {
+                var deadline = this.deadline;
+                var period = clamp(this.periodNanos, this.level);
+                var next = deadline + period;
+                var now = System.nanoTime();
+                if (next <= now) {
+                    next = period == 0 ? now : next + ((now - next) / period + 1) * period;
+                }
+                this.deadline = next;
+                this.current = schedule(this::run, next - now);
+                runNested(this.task, level, deadline);
+                return;
+            }
+            try {
+                runNested(this.task, level, this.deadline);
+            } finally {
+                if (!this.cancelled) {
+                    var delay = clamp(this.periodNanos, this.level);
+                    this.deadline = System.nanoTime() + delay;
+                    this.current = schedule(this::run, delay);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (this.cancelled) {
+                return false;
+            }
+            this.cancelled = true;
+            this.current.cancel();
+            return true;
+        }
+    }
+}
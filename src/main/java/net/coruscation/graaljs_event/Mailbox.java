@@ -0,0 +1,223 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of messages for one handler key of an {@link EContext},
+ * see {@link EContext#setMailbox(Object, Config)} and
+ * {@link EContext.Builder#workerMailbox(Config)}.
+ *
+ * Without a mailbox every message is queued on the event loop as is, so a
+ * producer that is faster than the receiving loop grows the queue without
+ * bound. With one, at most {@code capacity} messages wait and
+ * {@link Policy} decides what happens to the next one. The mailbox keeps a
+ * single delivery task queued on the event loop, which delivers one message
+ * per macrotask.
+ */
+public final class Mailbox {
+
+    public enum Policy {
+        /**
+         * Wait until there is room. Two contexts that block on each other's
+         * full mailboxes deadlock, so use it in one direction only. A context
+         * posting to its own full mailbox fails instead.
+         */
+        BLOCK,
+        /** Discard the oldest queued message. */
+        DROP_OLDEST,
+        /** Discard the new message. */
+        DROP_NEWEST,
+        /** Throw a {@link MailboxFullException}, an {@code Error} in js. */
+        FAIL
+    }
+
+    /**
+     * Called when the number of queued messages reaches the high watermark,
+     * and again when it drops back to the low watermark. Runs on the
+     * producer's or the event loop thread respectively, keep it short.
+     */
+    @FunctionalInterface
+    public interface WatermarkListener {
+        void onWatermark(Object key, int size, boolean high);
+    }
+
+    public record Config(int capacity, Policy policy, int highWatermark, int lowWatermark,
+            WatermarkListener listener) {
+
+        public Config {
+            if (capacity < 1 || highWatermark > capacity || lowWatermark < 0 || lowWatermark >= highWatermark) {
+                throw new IllegalArgumentException();
+            }
+        }
+
+        public static Config bounded(int capacity, Policy policy) {
+            return new Config(capacity, policy, capacity, capacity - 1, null);
+        }
+
+        public Config withWatermarks(int highWatermark, int lowWatermark, WatermarkListener listener) {
+            return new Config(capacity, policy, highWatermark, lowWatermark, listener);
+        }
+    }
+
+    public static class MailboxFullException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public MailboxFullException(String message) {
+            super(message);
+        }
+    }
+
+    // returned by poll() when there is no message, null messages are stored as NULL
+    static final Object EMPTY = new Object();
+    private static final Object NULL = new Object();
+
+    private final Object key;
+    private final Config config;
+    private final ArrayDeque<Object> messages = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = this.lock.newCondition();
+    private boolean deliveryScheduled = false;
+    private boolean aboveHighWatermark = false;
+    private boolean closed = false;
+    private long dropped = 0;
+
+    Mailbox(Object key, Config config) {
+        this.key = key;
+        this.config = config;
+    }
+
+    /**
+     * Queue {@code message}. Returns true if the caller must post a delivery
+     * task, i.e. the mailbox was idle.
+     *
+     * @param onLoopThread whether the caller is the receiving event loop,
+     *                     which must not block on itself
+     */
+    boolean offer(Object message, boolean onLoopThread) throws InterruptedException {
+        boolean schedule;
+        boolean crossedHigh = false;
+        int size;
+        this.lock.lock();
+        try {
+            while (this.messages.size() >= this.config.capacity() && !this.closed) {
+                switch (this.config.policy()) {
+                    case BLOCK:
+                        if (onLoopThread) {
+                            throw full();
+                        }
+                        this.notFull.await();
+                        continue;
+                    case DROP_OLDEST:
+                        this.messages.poll();
+                        this.dropped++;
+                        continue;
+                    case DROP_NEWEST:
+                        this.dropped++;
+                        return false;
+                    case FAIL:
+                        throw full();
+                }
+            }
+            if (this.closed) {
+                return false;
+            }
+            this.messages.add(message == null ? NULL : message);
+            size = this.messages.size();
+            if (!this.aboveHighWatermark && size >= this.config.highWatermark()) {
+                this.aboveHighWatermark = true;
+                crossedHigh = true;
+            }
+            schedule = !this.deliveryScheduled;
+            this.deliveryScheduled = true;
+        } finally {
+            this.lock.unlock();
+        }
+        if (crossedHigh && this.config.listener() != null) {
+            this.config.listener().onWatermark(this.key, size, true);
+        }
+        return schedule;
+    }
+
+    private MailboxFullException full() {
+        return new MailboxFullException("Mailbox of " + this.key + " is full (" + this.config.capacity() + ")");
+    }
+
+    /**
+     * Take the next message, or {@link #EMPTY} if there is none. Called by
+     * the delivery task on the event loop.
+     */
+    Object poll() {
+        Object message;
+        boolean crossedLow = false;
+        int size;
+        this.lock.lock();
+        try {
+            message = this.messages.poll();
+            size = this.messages.size();
+            if (message != null) {
+                this.notFull.signal();
+            }
+            if (this.aboveHighWatermark && size <= this.config.lowWatermark()) {
+                this.aboveHighWatermark = false;
+                crossedLow = true;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        if (crossedLow && this.config.listener() != null) {
+            this.config.listener().onWatermark(this.key, size, false);
+        }
+        if (message == null) {
+            return EMPTY;
+        }
+        return message == NULL ? null : message;
+    }
+
+    /**
+     * Called by the delivery task after a delivery. Returns true if it must
+     * be posted again, otherwise the mailbox is idle until the next offer.
+     */
+    boolean rescheduleDelivery() {
+        this.lock.lock();
+        try {
+            this.deliveryScheduled = !this.messages.isEmpty() && !this.closed;
+            return this.deliveryScheduled;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Discard queued messages and release blocked producers.
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.messages.clear();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    int size() {
+        this.lock.lock();
+        try {
+            return this.messages.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    long dropped() {
+        this.lock.lock();
+        try {
+            return this.dropped;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
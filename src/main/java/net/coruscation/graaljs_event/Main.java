@@ -0,0 +1,75 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.io.IOAccess;
+
+/**
+ * Command line entry point, also the entry point of the native image built
+ * with {@code mvn -Pnative package}:
+ *
+ * <pre>
+ * graaljs-event [--startup-time] script.mjs
+ * </pre>
+ *
+ * Evaluates {@code script.mjs} as an ES module and exits once its event loop
+ * has nothing left to do. {@code --startup-time} prints the time from process
+ * start to the first completed evaluation to stderr.
+ */
+public class Main {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var startupTime = false;
+        Path script = null;
+        for (var arg : args) {
+            if (arg.equals("--startup-time")) {
+                startupTime = true;
+            } else if (script == null) {
+                script = Path.of(arg);
+            } else {
+                usage();
+            }
+        }
+        if (script == null) {
+            usage();
+        }
+
+        var ec = new EContext(Context.newBuilder("js").allowIO(IOAccess.ALL));
+        ec.eval("undefined");
+        if (startupTime) {
+            var started = ProcessHandle.current().info().startInstant();
+            if (started.isPresent()) {
+                var elapsed = Duration.between(started.get(), Instant.now());
+                System.err.printf("startup to first eval: %d ms%n", elapsed.toMillis());
+            }
+        }
+
+        var exitCode = 0;
+        try {
+            ec.eval(Source.newBuilder("js", script.toFile())
+                    .mimeType("application/javascript+module")
+                    .build());
+            while (!ec.isQuiescent()) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        } catch (RuntimeException e) {
+            var cause = e.getCause() != null && e.getCause().getCause() instanceof PolyglotException p ? p : e;
+            System.err.println(cause.getMessage());
+            exitCode = 1;
+        }
+        ec.shutdown();
+        System.exit(exitCode);
+    }
+
+    private static void usage() {
+        System.err.println("usage: graaljs-event [--startup-time] script.mjs");
+        System.exit(2);
+    }
+}
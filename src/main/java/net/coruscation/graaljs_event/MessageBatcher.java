@@ -0,0 +1,56 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces the messages one context posts to a handler key of another,
+ * see {@link EContext.Builder#messageBatching(int)}.
+ *
+ * Messages posted during one macrotask of the sending event loop are sent as
+ * a single {@link StructuredClone.Batch} when the task ends, or as soon as
+ * {@code maxBatchSize} of them are pending. The receiver delivers a batch in
+ * one task, so a burst costs one hand-off instead of one per message.
+ *
+ * Only used on the sending event loop thread.
+ */
+class MessageBatcher {
+
+    private final EContext.EventLoop sender;
+    private final EContext target;
+    private final Object key;
+    private final int maxBatchSize;
+    private List<StructuredClone.Message> pending;
+
+    MessageBatcher(EContext.EventLoop sender, EContext target, Object key, int maxBatchSize) {
+        this.sender = sender;
+        this.target = target;
+        this.key = key;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Queue {@code message}. When this fills a batch it is sent right away,
+     * and a {@link Mailbox.MailboxFullException} of the target is thrown to
+     * the caller; a batch sent at the end of the task is dropped instead.
+     */
+    void add(StructuredClone.Message message) {
+        if (this.pending == null) {
+            this.pending = new ArrayList<>();
+            this.sender.afterTask(this::flush);
+        }
+        this.pending.add(message);
+        if (this.pending.size() >= this.maxBatchSize) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (this.pending == null) {
+            return;
+        }
+        var batch = new StructuredClone.Batch(this.pending);
+        this.pending = null;
+        this.target.sendMessage(this.key, batch);
+    }
+}
@@ -0,0 +1,207 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Parent side of a worker running in a child JVM, see
+ * {@link EContext.WorkerTransport#PROCESS}.
+ *
+ * The child is started with the parent's class path and runs
+ * {@link WorkerHost}, which connects back over a Unix domain socket in a
+ * private temporary directory. Messages are structured clones encoded with
+ * {@link WireFormat}; those posted before the child connected are queued and
+ * sent once it did, like messages to an in process worker that is still
+ * evaluating its script.
+ *
+ * The mailbox of the worker's inbox is applied in the child. With a
+ * {@link Mailbox.Policy#BLOCK} or {@link Mailbox.Policy#FAIL} policy the
+ * parent also keeps count of the messages the child did not deliver yet,
+ * and blocks or throws once {@code capacity} are in flight, as the child's
+ * mailbox would. Otherwise a full mailbox would stall or fail the child's
+ * reader, where no sender can observe it, while messages pile up in the
+ * parent.
+ *
+ * Closing the link makes the child shut down its context and exit, it is
+ * killed if it did not after {@link #EXIT_TIMEOUT_SECONDS}.
+ */
+final class ProcessWorker {
+
+    static final long EXIT_TIMEOUT_SECONDS = 5;
+
+    private final Process process;
+    private final ServerSocketChannel server;
+    private final SocketLink link = new SocketLink();
+    private final AtomicBoolean exited = new AtomicBoolean(false);
+    // null unless flow controlled, see isFlowControlled()
+    private final Mailbox.Config inbox;
+    // messages sent and not delivered by the child yet, guarded by this
+    private int inFlight = 0;
+    private boolean closed = false;
+
+    private ProcessWorker(Process process, ServerSocketChannel server, Mailbox.Config inbox) {
+        this.process = process;
+        this.server = server;
+        this.inbox = isFlowControlled(inbox) ? inbox : null;
+    }
+
+    /**
+     * Whether the parent applies the {@code inbox} policy as well, and the
+     * child acknowledges every message it delivered.
+     */
+    static boolean isFlowControlled(Mailbox.Config inbox) {
+        return inbox != null && (inbox.policy() == Mailbox.Policy.BLOCK || inbox.policy() == Mailbox.Policy.FAIL);
+    }
+
+    /**
+     * Spawn a process running {@code script}. {@code onMessage} is called
+     * with the messages the worker posts, on the link's reader thread.
+     * {@code onError} is called with the message of an error the worker
+     * reported, e.g. its script failed to evaluate. {@code onExit} is called
+     * once when the link is gone, because the child exited or
+     * {@link #close()} was called.
+     */
+    static ProcessWorker start(EContext.Builder options, Path script, boolean module, Mailbox.Config inbox,
+            String name, Consumer<StructuredClone.Message> onMessage, Consumer<String> onError, Runnable onExit)
+            throws IOException {
+        var dir = Files.createTempDirectory("graaljs-worker");
+        var socket = dir.resolve("link");
+        var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(options.getWorkerJvmOptions());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WorkerHost.class.getName());
+        command.add(socket.toString());
+        Process process;
+        try {
+            process = new ProcessBuilder(command).inheritIO().start();
+        } catch (IOException e) {
+            server.close();
+            deleteQuietly(socket, dir);
+            throw e;
+        }
+
+        var worker = new ProcessWorker(process, server, inbox);
+        worker.link.send(SocketLink.HELLO,
+                WireFormat.encode(new WireFormat.Hello(script.toAbsolutePath().toString(), module, inbox)));
+        Runnable exit = () -> {
+            worker.release();
+            if (worker.exited.compareAndSet(false, true)) {
+                onExit.run();
+            }
+        };
+        // a child that dies before connecting would leave accept() blocked
+        process.onExit().thenRun(worker::closeServer);
+        Thread.ofPlatform().daemon().name(name + " connect").start(() -> {
+            try (server) {
+                var channel = server.accept();
+                worker.link.start(channel, name, frame -> {
+                    try {
+                        switch (frame.kind()) {
+                            case SocketLink.MESSAGE -> onMessage.accept(WireFormat.decode(frame.payload()));
+                            case SocketLink.DELIVERED -> worker.delivered();
+                            case SocketLink.ERROR -> onError.accept(new String(frame.payload(), StandardCharsets.UTF_8));
+                            default -> throw new IOException("Unexpected frame " + frame.kind());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, exit);
+            } catch (IOException e) {
+                worker.link.close();
+                exit.run();
+            } finally {
+                deleteQuietly(socket, dir);
+            }
+        });
+        return worker;
+    }
+
+    /**
+     * Queue a message for the worker. Throws a {@code DataCloneError} if it
+     * holds something that can not leave this process. If the worker is
+     * flow controlled and {@code capacity} messages are in flight, blocks
+     * or throws a {@link Mailbox.MailboxFullException} depending on the
+     * policy.
+     */
+    void send(StructuredClone.Message message) {
+        var payload = WireFormat.encode(message);
+        if (this.inbox != null) {
+            acquire();
+        }
+        this.link.send(SocketLink.MESSAGE, payload);
+    }
+
+    private synchronized void acquire() {
+        while (this.inFlight >= this.inbox.capacity() && !this.closed) {
+            if (this.inbox.policy() == Mailbox.Policy.FAIL) {
+                // like the child's own mailbox, see Mailbox.full()
+                throw new Mailbox.MailboxFullException("Mailbox of self is full (" + this.inbox.capacity() + ")");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        this.inFlight++;
+    }
+
+    private synchronized void delivered() {
+        if (this.inFlight > 0) {
+            this.inFlight--;
+        }
+        notifyAll();
+    }
+
+    // the link is gone, senders must not wait for it
+    private synchronized void release() {
+        this.closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Disconnect, discarding queued messages, and kill the child if it does
+     * not exit on its own.
+     */
+    void close() {
+        release();
+        this.link.close();
+        closeServer();
+        this.process.onExit()
+                .completeOnTimeout(this.process, EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .thenAccept(Process::destroyForcibly);
+    }
+
+    private void closeServer() {
+        try {
+            this.server.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static void deleteQuietly(Path socket, Path dir) {
+        try {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            // left in the temporary directory
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.coruscation.graaljs_event;
+
+/**
+ * A context exceeded one of its resource limits, see
+ * {@link EContext.Builder#onResourceViolation}. By the time the listener is
+ * called the context is being cancelled: the running task is stopped, its
+ * timers and queued messages are discarded and its workers terminated.
+ *
+ * @param kind    the limit that was exceeded
+ * @param context the offending context, a worker's own context for a worker
+ * @param message a description for logs
+ */
+public record ResourceViolation(Kind kind, EContext context, String message) {
+
+    public enum Kind {
+        /** A task ran longer than {@link EContext.Builder#maxTaskDuration}. */
+        TASK_DURATION,
+        /** A task ran more than {@link EContext.Builder#statementLimit} statements. */
+        STATEMENTS,
+        /** The context's heap grew past {@link EContext.Builder#maxHeap}. */
+        HEAP
+    }
+}
@@ -0,0 +1,169 @@
+package net.coruscation.graaljs_event;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An off-heap memory region backing a {@code SharedArrayBuffer} that can be
+ * posted between contexts.
+ *
+ * Every context the buffer is posted to wraps the same direct
+ * {@link ByteBuffer}, so writes are visible to all of them. js engines can only
+ * make {@code Atomics} atomic for memory they own, so the {@code Atomics}
+ * operations on these buffers are implemented here with {@link VarHandle}s,
+ * and {@code Atomics.wait}/{@code Atomics.notify} with per region wait queues.
+ * Only 32 bit integer elements are supported, which covers
+ * {@code Atomics.wait}.
+ */
+class SharedMemory {
+
+    // Typed arrays on host buffers read and write little endian
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private static final class Waiter {
+        final Condition condition;
+        boolean notified = false;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    final ByteBuffer buffer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // byte index -> waiters in FIFO order, guarded by lock
+    private final Map<Integer, ArrayDeque<Waiter>> waiters = new HashMap<>();
+
+    SharedMemory(int byteLength) {
+        if (byteLength < 0) {
+            throw new IllegalArgumentException("Invalid SharedArrayBuffer length");
+        }
+        this.buffer = ByteBuffer.allocateDirect(byteLength);
+    }
+
+    private void checkIndex(int byteIndex) {
+        if (byteIndex < 0 || byteIndex + Integer.BYTES > this.buffer.capacity() || byteIndex % Integer.BYTES != 0) {
+            throw new IndexOutOfBoundsException(byteIndex);
+        }
+    }
+
+    int load(int byteIndex) {
+        checkIndex(byteIndex);
+        return (int) INT.getVolatile(this.buffer, byteIndex);
+    }
+
+    int store(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        INT.setVolatile(this.buffer, byteIndex, value);
+        return value;
+    }
+
+    int add(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndAdd(this.buffer, byteIndex, value);
+    }
+
+    int sub(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndAdd(this.buffer, byteIndex, -value);
+    }
+
+    int and(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndBitwiseAnd(this.buffer, byteIndex, value);
+    }
+
+    int or(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndBitwiseOr(this.buffer, byteIndex, value);
+    }
+
+    int xor(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndBitwiseXor(this.buffer, byteIndex, value);
+    }
+
+    int exchange(int byteIndex, int value) {
+        checkIndex(byteIndex);
+        return (int) INT.getAndSet(this.buffer, byteIndex, value);
+    }
+
+    int compareExchange(int byteIndex, int expected, int replacement) {
+        checkIndex(byteIndex);
+        return (int) INT.compareAndExchange(this.buffer, byteIndex, expected, replacement);
+    }
+
+    /**
+     * {@code Atomics.wait}: block while the element equals {@code expected},
+     * until notified or {@code timeoutMillis} elapses.
+     *
+     * @return "ok", "not-equal" or "timed-out"
+     */
+    String await(int byteIndex, int expected, double timeoutMillis) throws InterruptedException {
+        checkIndex(byteIndex);
+        this.lock.lock();
+        try {
+            if (load(byteIndex) != expected) {
+                return "not-equal";
+            }
+            var waiter = new Waiter(this.lock.newCondition());
+            var queue = this.waiters.computeIfAbsent(byteIndex, i -> new ArrayDeque<>());
+            queue.addLast(waiter);
+            var forever = Double.isNaN(timeoutMillis) || timeoutMillis == Double.POSITIVE_INFINITY;
+            var remaining = forever ? Long.MAX_VALUE : (long) (Math.max(timeoutMillis, 0) * 1_000_000);
+            try {
+                while (!waiter.notified) {
+                    if (forever) {
+                        waiter.condition.await();
+                    } else if (remaining <= 0) {
+                        return "timed-out";
+                    } else {
+                        remaining = waiter.condition.awaitNanos(remaining);
+                    }
+                }
+                return "ok";
+            } finally {
+                if (!waiter.notified) {
+                    queue.remove(waiter);
+                }
+                if (queue.isEmpty()) {
+                    this.waiters.remove(byteIndex, queue);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@code Atomics.notify}: wake up to {@code count} waiters on the element.
+     *
+     * @return the number of woken waiters
+     */
+    int wake(int byteIndex, int count) {
+        checkIndex(byteIndex);
+        this.lock.lock();
+        try {
+            var queue = this.waiters.get(byteIndex);
+            int woken = 0;
+            while (queue != null && !queue.isEmpty() && woken < count) {
+                var waiter = queue.pollFirst();
+                waiter.notified = true;
+                waiter.condition.signal();
+                woken++;
+            }
+            return woken;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package net.coruscation.graaljs_event;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * A duplex stream of frames over a connected (Unix domain) socket, one end
+ * of the link between a worker and its parent in another process, see
+ * {@link ProcessWorker} and {@link WorkerHost}.
+ *
+ * A frame is a 4 byte length followed by a kind byte and the payload.
+ * {@link #send} only queues the frame, a writer thread writes everything
+ * queued in one gathering write, so an event loop never blocks on the socket
+ * and a burst of messages costs one system call. A reader thread hands
+ * incoming frames to {@code onFrame}, and calls {@code onClose} once when the
+ * peer goes away or the link is closed.
+ */
+final class SocketLink {
+
+    static final byte HELLO = 1;
+    static final byte MESSAGE = 2;
+    // the worker failed, the payload is the UTF-8 error message
+    static final byte ERROR = 3;
+    // the worker delivered a message, see ProcessWorker#isFlowControlled
+    static final byte DELIVERED = 4;
+
+    record Frame(byte kind, byte[] payload) {
+    }
+
+    // tells the writer to stop
+    private static final Frame CLOSE = new Frame((byte) 0, new byte[0]);
+
+    private final LinkedBlockingQueue<Frame> outbox = new LinkedBlockingQueue<>();
+    private volatile SocketChannel channel;
+    private volatile boolean closed = false;
+
+    /**
+     * Start the writer and reader threads over {@code channel}, named after
+     * {@code name}. Frames sent before are written first.
+     */
+    void start(SocketChannel channel, String name, Consumer<Frame> onFrame, Runnable onClose) {
+        this.channel = channel;
+        if (this.closed) {
+            close(channel);
+            onClose.run();
+            return;
+        }
+        Thread.ofPlatform().daemon().name(name + " writer").start(this::write);
+        Thread.ofPlatform().daemon().name(name + " reader").start(() -> {
+            try {
+                while (true) {
+                    onFrame.accept(read());
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // EOF, closed or garbled, the peer is gone
+            } finally {
+                close();
+                onClose.run();
+            }
+        });
+    }
+
+    /**
+     * Queue a frame, dropped once the link is closed. Callable from any
+     * thread, also before the link is started.
+     */
+    void send(byte kind, byte[] payload) {
+        if (!this.closed) {
+            this.outbox.add(new Frame(kind, payload));
+        }
+    }
+
+    /**
+     * Close the socket, frames not written yet are discarded.
+     */
+    void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.outbox.add(CLOSE);
+        var channel = this.channel;
+        if (channel != null) {
+            close(channel);
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private void write() {
+        var frames = new ArrayList<Frame>();
+        try {
+            while (true) {
+                frames.add(this.outbox.take());
+                this.outbox.drainTo(frames);
+                var buffers = new ArrayList<ByteBuffer>(frames.size() * 2);
+                long remaining = 0;
+                for (var frame : frames) {
+                    if (frame == CLOSE) {
+                        return;
+                    }
+                    buffers.add(ByteBuffer.allocate(5).putInt(frame.payload().length + 1).put(frame.kind()).flip());
+                    buffers.add(ByteBuffer.wrap(frame.payload()));
+                    remaining += 5 + frame.payload().length;
+                }
+                var array = buffers.toArray(ByteBuffer[]::new);
+                while (remaining > 0) {
+                    remaining -= this.channel.write(array);
+                }
+                frames.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+
+    private Frame read() throws IOException {
+        var header = readFully(ByteBuffer.allocate(4));
+        var length = header.getInt();
+        if (length < 1) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        var body = readFully(ByteBuffer.allocate(length));
+        var kind = body.get();
+        var payload = new byte[length - 1];
+        body.get(payload);
+        return new Frame(kind, payload);
+    }
+
+    private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,82 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.graalvm.polyglot.Source;
+
+/**
+ * Process wide cache of worker script {@link Source}s.
+ *
+ * A polyglot {@link org.graalvm.polyglot.Engine} only reuses parsed code for
+ * {@code Source} objects it has seen before, so workers spawned from a shared
+ * engine must be handed the very same {@code Source} instance to avoid
+ * re-parsing. An entry is checked against the file's modification time and
+ * size; when they changed the file is read and hashed, and the cached
+ * {@code Source} is kept if the content is the same, e.g. after a deploy
+ * that only touched the file.
+ */
+class SourceCache {
+
+    record Key(Path path, boolean isEsmModule) {
+    }
+
+    record Entry(Source source, FileTime lastModified, long size, byte[] hash) {
+    }
+
+    private static final ConcurrentHashMap<Key, Entry> cache = new ConcurrentHashMap<>();
+
+    static Source get(Path path, boolean isEsmModule) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attributes = null;
+        }
+        if (attributes == null || !attributes.isRegularFile()) {
+            throw new RuntimeException("Js file does not exist: '" + path.toString() + "'");
+        }
+        var key = new Key(path, isEsmModule);
+        var entry = cache.get(key);
+        if (entry != null && entry.lastModified().equals(attributes.lastModifiedTime())
+                && entry.size() == attributes.size()) {
+            return entry.source();
+        }
+        var content = Files.readAllBytes(path);
+        var hash = sha256(content);
+        Source source;
+        if (entry != null && Arrays.equals(entry.hash(), hash)) {
+            source = entry.source();
+        } else {
+            var builder = Source.newBuilder("js", path.toFile())
+                    .content(new String(content, StandardCharsets.UTF_8));
+            if (isEsmModule) {
+                builder = builder.mimeType("application/javascript+module");
+            }
+            source = builder.build();
+        }
+        cache.put(key, new Entry(source, attributes.lastModifiedTime(), content.length, hash));
+        return source;
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,444 @@
+package net.coruscation.graaljs_event;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+
+/**
+ * Host side implementation of the structured clone algorithm used by
+ * {@code postMessage}.
+ *
+ * A js {@link Value} can only be used on the thread of the context it belongs
+ * to, so a message is first serialized on the sending context's event loop
+ * into a context independent graph of plain Java objects, and then
+ * materialized on the receiving event loop. Array buffers are copied into
+ * direct {@link ByteBuffer}s, also when they are transferred, and a
+ * transferred buffer is then detached from the sender. When the receiving
+ * context allows host buffer access the copy is wrapped by an
+ * {@code ArrayBuffer} as is. Such a buffer is backed by host memory, which
+ * GraalJS can not detach: transferring it on leaves the sender's view usable.
+ *
+ * One instance is created per {@link EContext} and must only be used on its
+ * event loop thread.
+ */
+class StructuredClone {
+
+    /**
+     * A cloned message, safe to pass between threads. {@code size} is a rough
+     * estimate of its size in bytes, used for metrics. {@code ports} are the
+     * transferred message ports, in the order of the transfer list.
+     */
+    record Message(Object data, double timeStamp, long size, List<PortNode> ports) {
+    }
+
+    /**
+     * Messages coalesced by a {@link MessageBatcher}, delivered in one task.
+     */
+    record Batch(List<Message> messages) {
+    }
+
+    enum Undefined {
+        INSTANCE
+    }
+
+    static final class ObjectNode {
+        final Map<String, Object> members = new LinkedHashMap<>();
+    }
+
+    static final class ArrayNode {
+        final List<Object> elements;
+
+        ArrayNode(int size) {
+            this.elements = new ArrayList<>(size);
+        }
+    }
+
+    static final class BufferNode {
+        final ByteBuffer buffer;
+
+        BufferNode(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    record SharedNode(SharedMemory region) {
+    }
+
+    record PortNode(ChannelPort port) {
+    }
+
+    record StreamNode(ByteStream.End end) {
+    }
+
+    record TypedArrayNode(String type, Object buffer, long byteOffset, long length) {
+    }
+
+    record DateNode(double time) {
+    }
+
+    private static final Set<String> TYPED_ARRAYS = Set.of("Int8Array", "Uint8Array", "Uint8ClampedArray",
+            "Int16Array", "Uint16Array", "Int32Array", "Uint32Array", "Float32Array", "Float64Array",
+            "BigInt64Array", "BigUint64Array", "DataView");
+
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+    private final Context jsContext;
+    private final EContext eContext;
+    private final Value bindings;
+    private final Value undefined;
+    private final Map<String, Value> constructors = new HashMap<>();
+    private Boolean hostBufferAccess;
+
+    StructuredClone(Context jsContext, EContext eContext) {
+        this.jsContext = jsContext;
+        this.eContext = eContext;
+        this.bindings = jsContext.getBindings("js");
+        this.undefined = jsContext.eval("js", "undefined");
+    }
+
+    private Value constructor(String name) {
+        return this.constructors.computeIfAbsent(name, this.bindings::getMember);
+    }
+
+    /**
+     * Copy the content of an {@code ArrayBuffer} into a new direct buffer.
+     */
+    ByteBuffer copyBuffer(Value arrayBuffer) {
+        var hostBuffer = this.bindings.getMember("_hostBufferOf").execute(arrayBuffer);
+        if (hostBuffer.isHostObject() && hostBuffer.asHostObject() instanceof ByteBuffer byteBuffer) {
+            return copy(byteBuffer);
+        }
+        var size = (int) arrayBuffer.getBufferSize();
+        var copy = ByteBuffer.allocateDirect(size);
+        var chunk = new byte[Math.min(size, COPY_CHUNK_SIZE)];
+        for (int offset = 0; offset < size; offset += chunk.length) {
+            var length = Math.min(chunk.length, size - offset);
+            arrayBuffer.readBuffer(offset, chunk, 0, length);
+            copy.put(chunk, 0, length);
+        }
+        return copy.flip();
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        return ByteBuffer.allocateDirect(buffer.capacity()).put(buffer.duplicate().clear()).flip();
+    }
+
+    /**
+     * An {@code ArrayBuffer} over {@code buffer}, which must span its whole
+     * capacity. Not a copy when host buffer access is allowed.
+     */
+    Value wrapBuffer(ByteBuffer buffer) {
+        if (this.hostBufferAccess == null) {
+            this.hostBufferAccess = this.jsContext.asValue(buffer).hasBufferElements();
+        }
+        if (this.hostBufferAccess) {
+            return this.bindings.getMember("_wrapHostBuffer").execute(buffer);
+        }
+        // The context does not allow host buffer access, copy into a js owned
+        // buffer, eight bytes per call
+        var size = buffer.remaining();
+        var copy = constructor("ArrayBuffer").newInstance(size);
+        var source = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for (; i + Long.BYTES <= size; i += Long.BYTES) {
+            copy.writeBufferLong(ByteOrder.LITTLE_ENDIAN, i, source.getLong(i));
+        }
+        for (; i < size; i++) {
+            copy.writeBufferByte(i, source.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Clone {@code value}. {@code transfer} is the optional transfer list of
+     * {@code postMessage}, the array buffers, message ports and streams in it
+     * are detached from this context.
+     */
+    Message serialize(Value value, Value transfer) {
+        var transferred = new HashSet<Value>();
+        var ports = new LinkedHashMap<ChannelPort, PortNode>();
+        var streams = new LinkedHashMap<ByteStream.End, StreamNode>();
+        if (transfer != null && !transfer.isNull()) {
+            if (!transfer.hasArrayElements()) {
+                throw new IllegalArgumentException("DataCloneError: transfer list must be an array");
+            }
+            for (long i = 0; i < transfer.getArraySize(); i++) {
+                var item = transfer.getArrayElement(i);
+                var port = portOf(item);
+                if (port != null) {
+                    if (!port.isOwnedBy(this.eContext) || ports.put(port, new PortNode(port)) != null) {
+                        throw new IllegalArgumentException("DataCloneError: port can not be transferred");
+                    }
+                    continue;
+                }
+                var end = streamOf(item);
+                if (end != null) {
+                    if (!end.isTransferableFrom(this.eContext) || streams.put(end, new StreamNode(end)) != null) {
+                        throw new IllegalArgumentException("DataCloneError: stream can not be transferred");
+                    }
+                    continue;
+                }
+                if (!"ArrayBuffer".equals(metaName(item)) || sharedRegionOf(item) != null || !transferred.add(item)) {
+                    throw new IllegalArgumentException("DataCloneError: value can not be transferred");
+                }
+            }
+        }
+        var writer = new Writer(ports, streams);
+        var data = writer.write(value);
+        for (var buffer : transferred) {
+            this.bindings.getMember("_detachArrayBuffer").execute(buffer);
+        }
+        for (var port : ports.keySet()) {
+            port.detach();
+        }
+        for (var end : streams.keySet()) {
+            end.detach();
+        }
+        return new Message(data, System.currentTimeMillis(), writer.size, List.copyOf(ports.values()));
+    }
+
+    /**
+     * Materialize a cloned message in this context.
+     */
+    Value deserialize(Object data) {
+        return new Reader().read(data);
+    }
+
+    /**
+     * The transferred ports of a message as an array, the same
+     * {@code MessagePort}s as in its deserialized data.
+     */
+    Value deserializePorts(Message message) {
+        var reader = new Reader();
+        var array = constructor("Array").newInstance(message.ports().size());
+        for (int i = 0; i < message.ports().size(); i++) {
+            array.setArrayElement(i, reader.read(message.ports().get(i)));
+        }
+        return array;
+    }
+
+    /**
+     * Materialize a batch as an array of {@code [data, timeStamp, ports]}.
+     */
+    Value deserializeBatch(Batch batch) {
+        var messages = batch.messages();
+        var array = constructor("Array").newInstance(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            var message = messages.get(i);
+            var entry = constructor("Array").newInstance(3);
+            entry.setArrayElement(0, deserialize(message.data()));
+            entry.setArrayElement(1, message.timeStamp());
+            entry.setArrayElement(2, deserializePorts(message));
+            array.setArrayElement(i, entry);
+        }
+        return array;
+    }
+
+    private ChannelPort portOf(Value value) {
+        if (!value.hasMembers()) {
+            return null;
+        }
+        var port = this.bindings.getMember("_portOf").execute(value);
+        return port.isHostObject() && port.asHostObject() instanceof ChannelPort channelPort ? channelPort : null;
+    }
+
+    private ByteStream.End streamOf(Value value) {
+        if (!value.hasMembers()) {
+            return null;
+        }
+        var end = this.bindings.getMember("_streamOf").execute(value);
+        return end.isHostObject() && end.asHostObject() instanceof ByteStream.End streamEnd ? streamEnd : null;
+    }
+
+    private SharedMemory sharedRegionOf(Value arrayBuffer) {
+        var region = this.bindings.getMember("_sharedRegionOf").execute(arrayBuffer);
+        return region.isHostObject() && region.asHostObject() instanceof SharedMemory shared ? shared : null;
+    }
+
+    private static String metaName(Value value) {
+        if (!value.hasMembers()) {
+            return null;
+        }
+        var meta = value.getMetaObject();
+        return meta == null ? null : meta.getMetaSimpleName();
+    }
+
+    private class Writer {
+        private final Map<ChannelPort, PortNode> ports;
+        private final Map<ByteStream.End, StreamNode> streams;
+        private final Map<Value, Object> memory = new HashMap<>();
+        // estimated size of the clone, strings count two bytes per char
+        long size = 0;
+
+        Writer(Map<ChannelPort, PortNode> ports, Map<ByteStream.End, StreamNode> streams) {
+            this.ports = ports;
+            this.streams = streams;
+        }
+
+        Object write(Value value) {
+            this.size += 8;
+            if (value.isNull()) {
+                return value.equals(undefined) ? Undefined.INSTANCE : null;
+            }
+            if (value.isBoolean()) {
+                return value.asBoolean();
+            }
+            if (value.isString()) {
+                var string = value.asString();
+                this.size += 2L * string.length();
+                return string;
+            }
+            if (value.isNumber()) {
+                return value.fitsInInt() ? (Object) value.asInt() : (Object) value.asDouble();
+            }
+            if (value.canExecute()) {
+                throw new IllegalArgumentException("DataCloneError: functions can not be cloned");
+            }
+            var seen = this.memory.get(value);
+            if (seen != null) {
+                return seen;
+            }
+            if (!this.ports.isEmpty()) {
+                var port = portOf(value);
+                if (port != null) {
+                    var node = this.ports.get(port);
+                    if (node == null) {
+                        throw new IllegalArgumentException("DataCloneError: a MessagePort must be transferred");
+                    }
+                    return node;
+                }
+            }
+            if (!this.streams.isEmpty()) {
+                var end = streamOf(value);
+                if (end != null) {
+                    var node = this.streams.get(end);
+                    if (node == null) {
+                        throw new IllegalArgumentException("DataCloneError: a stream must be transferred");
+                    }
+                    return node;
+                }
+            }
+            var type = metaName(value);
+            if ("ArrayBuffer".equals(type)) {
+                var region = sharedRegionOf(value);
+                if (region != null) {
+                    // shared memory is neither copied nor transferred
+                    var node = new SharedNode(region);
+                    this.memory.put(value, node);
+                    return node;
+                }
+                var node = new BufferNode(copyBuffer(value));
+                this.size += node.buffer.capacity();
+                this.memory.put(value, node);
+                return node;
+            }
+            if (type != null && TYPED_ARRAYS.contains(type)) {
+                var buffer = write(value.getMember("buffer"));
+                var length = value.getMember(type.equals("DataView") ? "byteLength" : "length").asLong();
+                var node = new TypedArrayNode(type, buffer, value.getMember("byteOffset").asLong(), length);
+                this.memory.put(value, node);
+                return node;
+            }
+            if ("Date".equals(type)) {
+                var node = new DateNode(value.invokeMember("getTime").asDouble());
+                this.memory.put(value, node);
+                return node;
+            }
+            if (value.hasArrayElements()) {
+                var size = value.getArraySize();
+                var node = new ArrayNode((int) size);
+                this.memory.put(value, node);
+                for (long i = 0; i < size; i++) {
+                    node.elements.add(write(value.getArrayElement(i)));
+                }
+                return node;
+            }
+            if (value.hasMembers() && !value.isHostObject()) {
+                var node = new ObjectNode();
+                this.memory.put(value, node);
+                for (var key : value.getMemberKeys()) {
+                    this.size += 2L * key.length();
+                    node.members.put(key, write(value.getMember(key)));
+                }
+                return node;
+            }
+            throw new IllegalArgumentException("DataCloneError: value can not be cloned");
+        }
+    }
+
+    private class Reader {
+        private final Map<Object, Value> memory = new IdentityHashMap<>();
+
+        Value read(Object data) {
+            if (data == null) {
+                return jsContext.asValue(null);
+            }
+            if (data == Undefined.INSTANCE) {
+                return undefined;
+            }
+            if (data instanceof Boolean || data instanceof Number || data instanceof String) {
+                return jsContext.asValue(data);
+            }
+            var seen = this.memory.get(data);
+            if (seen != null) {
+                return seen;
+            }
+            Value value;
+            if (data instanceof ObjectNode node) {
+                value = constructor("Object").newInstance();
+                this.memory.put(data, value);
+                for (var member : node.members.entrySet()) {
+                    value.putMember(member.getKey(), read(member.getValue()));
+                }
+            } else if (data instanceof ArrayNode node) {
+                value = constructor("Array").newInstance(node.elements.size());
+                this.memory.put(data, value);
+                for (int i = 0; i < node.elements.size(); i++) {
+                    value.setArrayElement(i, read(node.elements.get(i)));
+                }
+            } else if (data instanceof BufferNode node) {
+                value = wrap(node.buffer);
+                this.memory.put(data, value);
+            } else if (data instanceof PortNode node) {
+                var port = node.port();
+                value = port.jsPort(eContext);
+                if (value == null) {
+                    port.adopt(eContext);
+                    value = constructor("MessagePort").newInstance(port);
+                }
+                this.memory.put(data, value);
+            } else if (data instanceof StreamNode node) {
+                var end = node.end();
+                end.adopt(eContext);
+                value = bindings.getMember("_wrapStream").execute(end, end.reading);
+                this.memory.put(data, value);
+            } else if (data instanceof SharedNode node) {
+                value = bindings.getMember("_wrapSharedRegion").execute(node.region());
+                this.memory.put(data, value);
+            } else if (data instanceof TypedArrayNode node) {
+                value = constructor(node.type()).newInstance(read(node.buffer()), node.byteOffset(), node.length());
+                this.memory.put(data, value);
+            } else if (data instanceof DateNode node) {
+                value = constructor("Date").newInstance(node.time());
+                this.memory.put(data, value);
+            } else {
+                throw new IllegalArgumentException("DataCloneError: unknown node " + data.getClass());
+            }
+            return value;
+        }
+
+        private Value wrap(ByteBuffer buffer) {
+            return wrapBuffer(buffer);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * The executor of an event loop run by an {@link EContextScheduler}, in
+ * place of a single threaded executor of its own.
+ *
+ * Tasks run one at a time, in order, on whichever scheduler thread runs the
+ * next slice. The event loop's {@link #bind binding} enters its js context
+ * at the start of a slice and leaves it at the end. Delayed and periodic
+ * tasks wait on the scheduler's timer thread and are then queued like any
+ * other; cancelling one that is already queued still keeps it from running.
+ * A periodic task that is still queued when it is due again runs once. A
+ * task with a fixed delay is due again its delay after a run returned, its
+ * timer is armed anew each time.
+ */
+final class TenantExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+    final EContextScheduler.Tenant tenant;
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    // set while queued on the scheduler or running a slice
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Set<DelayedTask<?>> delayed = ConcurrentHashMap.newKeySet();
+    // held while a slice runs
+    private final ReentrantLock running = new ReentrantLock();
+    private volatile boolean shutdown = false;
+    private Runnable enter;
+    private Runnable leave;
+
+    TenantExecutor(EContextScheduler.Tenant tenant) {
+        this.tenant = tenant;
+    }
+
+    /**
+     * Call {@code enter} before and {@code leave} after every slice, from the
+     * next one on.
+     */
+    void bind(Runnable enter, Runnable leave) {
+        this.enter = enter;
+        this.leave = leave;
+    }
+
+    /**
+     * Run {@code f} on the calling thread as a slice of its own, e.g. to
+     * build the context without waiting for a scheduler thread.
+     */
+    <T> T runInline(Supplier<T> f) {
+        this.running.lock();
+        try {
+            if (this.enter != null) {
+                this.enter.run();
+            }
+            return f.get();
+        } finally {
+            if (this.leave != null) {
+                this.leave.run();
+            }
+            this.running.unlock();
+        }
+    }
+
+    /**
+     * Run queued tasks for up to {@code quantumNanos}. Returns whether tasks
+     * are left, in which case the caller has to queue this executor again.
+     */
+    boolean runSlice(long quantumNanos) {
+        var start = System.nanoTime();
+        this.running.lock();
+        try {
+            if (this.enter != null) {
+                this.enter.run();
+            }
+            Runnable task;
+            while (!this.shutdown && (task = this.queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    // like on a ScheduledThreadPoolExecutor, a failing task does not stop the others
+                }
+                if (System.nanoTime() - start >= quantumNanos) {
+                    break;
+                }
+            }
+        } finally {
+            if (this.leave != null) {
+                this.leave.run();
+            }
+            this.running.unlock();
+        }
+        this.scheduled.set(false);
+        // tasks left over, or queued after the last poll
+        return !this.shutdown && !this.queue.isEmpty() && this.scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Tasks waiting to run, including delayed ones, like the queue of a
+     * {@link java.util.concurrent.ScheduledThreadPoolExecutor}.
+     */
+    int queued() {
+        return this.queue.size() + this.delayed.size();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        this.queue.add(command);
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.tenant.scheduler.ready(this);
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        var task = new DelayedTask<>(callable, false);
+        this.delayed.add(task);
+        task.timer = this.tenant.scheduler.timer.schedule(() -> {
+            this.delayed.remove(task);
+            queue(task);
+        }, delay, unit);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        var task = new DelayedTask<>(Executors.callable(command), true);
+        this.delayed.add(task);
+        task.timer = this.tenant.scheduler.timer.scheduleAtFixedRate(() -> {
+            if (task.queued.compareAndSet(false, true)) {
+                queue(task);
+            }
+        }, initialDelay, period, unit);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+            TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        var task = new DelayedTask<>(Executors.callable(command), true);
+        task.delayNanos = unit.toNanos(delay);
+        this.delayed.add(task);
+        task.timer = this.tenant.scheduler.timer.schedule(() -> queue(task), initialDelay, unit);
+        return task;
+    }
+
+    private void queue(DelayedTask<?> task) {
+        try {
+            execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdownNow();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.shutdown = true;
+        for (var task : List.copyOf(this.delayed)) {
+            task.cancel(false);
+        }
+        var dropped = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = this.queue.poll()) != null) {
+            dropped.add(task);
+        }
+        return dropped;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.shutdown && !this.running.isLocked();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!this.shutdown) {
+            return false;
+        }
+        if (this.running.tryLock(timeout, unit)) {
+            this.running.unlock();
+            return true;
+        }
+        return false;
+    }
+
+    private final class DelayedTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        private final boolean periodic;
+        // set while a run of a periodic task is queued
+        final AtomicBoolean queued = new AtomicBoolean(false);
+        // the delay after each run of a fixed delay task, 0 for other tasks
+        long delayNanos = 0;
+        volatile ScheduledFuture<?> timer;
+
+        DelayedTask(Callable<V> callable, boolean periodic) {
+            super(callable);
+            this.periodic = periodic;
+        }
+
+        @Override
+        public void run() {
+            if (!this.periodic) {
+                super.run();
+                return;
+            }
+            this.queued.set(false);
+            if (!runAndReset()) {
+                // failed or cancelled, like ScheduledThreadPoolExecutor it does not run again
+                cancel(false);
+            } else if (this.delayNanos > 0) {
+                rearm();
+            }
+        }
+
+        private void rearm() {
+            this.timer = tenant.scheduler.timer.schedule(() -> queue(this), this.delayNanos, TimeUnit.NANOSECONDS);
+            if (isCancelled()) {
+                // cancelled while running, it missed the new timer
+                this.timer.cancel(false);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            var cancelled = super.cancel(mayInterruptIfRunning);
+            delayed.remove(this);
+            var timer = this.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            var timer = this.timer;
+            return timer == null ? 0 : timer.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
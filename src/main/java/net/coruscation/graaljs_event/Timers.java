@@ -0,0 +1,24 @@
+package net.coruscation.graaljs_event;
+
+/**
+ * Timer backend of an {@link EContext.EventLoop}. Due tasks are handed to the
+ * loop's dispatch executor, which runs them as macrotasks on the event loop
+ * thread. {@link #schedule} and {@link Timeout#cancel} must be called from
+ * that thread as well.
+ */
+interface Timers {
+
+    interface Timeout {
+        /**
+         * Returns false if the task already ran or was cancelled.
+         */
+        boolean cancel();
+    }
+
+    Timeout schedule(Runnable task, long delayNanos);
+
+    /**
+     * Number of scheduled tasks that have neither run nor been cancelled.
+     */
+    int pending();
+}
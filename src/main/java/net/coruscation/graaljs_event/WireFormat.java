@@ -0,0 +1,281 @@
+package net.coruscation.graaljs_event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte encoding of {@link StructuredClone.Message}s, for workers running in
+ * another process, see {@link EContext.WorkerTransport#PROCESS}.
+ *
+ * A message is written as a tree of tagged values. Objects, arrays, buffers,
+ * typed arrays and dates are numbered in the order they are written, a value
+ * seen before is written as a reference to its number, so shared and cyclic
+ * references survive like they do in process. Shared memory, message ports
+ * and streams can not leave the process and are rejected with a
+ * {@code DataCloneError}.
+ */
+final class WireFormat {
+
+    private static final byte NULL = 0;
+    private static final byte UNDEFINED = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte INT = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte STRING = 6;
+    private static final byte OBJECT = 7;
+    private static final byte ARRAY = 8;
+    private static final byte BUFFER = 9;
+    private static final byte TYPED_ARRAY = 10;
+    private static final byte DATE = 11;
+    private static final byte REFERENCE = 12;
+
+    /**
+     * First frame sent to a worker process: the script to run and the
+     * mailbox of its inbox, if any.
+     */
+    record Hello(String script, boolean module, Mailbox.Config mailbox) {
+    }
+
+    private WireFormat() {
+    }
+
+    static byte[] encode(StructuredClone.Message message) {
+        if (!message.ports().isEmpty()) {
+            // already detached from the sender, nobody else can use them
+            for (var port : message.ports()) {
+                port.port().close();
+            }
+            throw new IllegalArgumentException("DataCloneError: a MessagePort can not be sent to another process");
+        }
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeDouble(message.timeStamp());
+            new Writer(out).write(message.data());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static StructuredClone.Message decode(byte[] frame) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(frame));
+        var timeStamp = in.readDouble();
+        var data = new Reader(in).read();
+        return new StructuredClone.Message(data, timeStamp, frame.length, List.of());
+    }
+
+    static byte[] encode(Hello hello) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            writeString(out, hello.script());
+            out.writeBoolean(hello.module());
+            var mailbox = hello.mailbox();
+            out.writeInt(mailbox == null ? 0 : mailbox.capacity());
+            if (mailbox != null) {
+                out.writeByte(mailbox.policy().ordinal());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Hello decodeHello(byte[] frame) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(frame));
+        var script = readString(in);
+        var module = in.readBoolean();
+        var capacity = in.readInt();
+        var mailbox = capacity == 0 ? null
+                : Mailbox.Config.bounded(capacity, Mailbox.Policy.values()[in.readByte()]);
+        return new Hello(script, module, mailbox);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        var bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        var bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Writer {
+        private final DataOutputStream out;
+        private final Map<Object, Integer> written = new IdentityHashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(Object data) throws IOException {
+            if (data == null) {
+                this.out.writeByte(NULL);
+                return;
+            }
+            if (data == StructuredClone.Undefined.INSTANCE) {
+                this.out.writeByte(UNDEFINED);
+                return;
+            }
+            if (data instanceof Boolean b) {
+                this.out.writeByte(b ? TRUE : FALSE);
+                return;
+            }
+            if (data instanceof Integer i) {
+                this.out.writeByte(INT);
+                this.out.writeInt(i);
+                return;
+            }
+            if (data instanceof Double d) {
+                this.out.writeByte(DOUBLE);
+                this.out.writeDouble(d);
+                return;
+            }
+            if (data instanceof String s) {
+                this.out.writeByte(STRING);
+                writeString(this.out, s);
+                return;
+            }
+            var id = this.written.get(data);
+            if (id != null) {
+                this.out.writeByte(REFERENCE);
+                this.out.writeInt(id);
+                return;
+            }
+            if (data instanceof StructuredClone.ObjectNode node) {
+                this.out.writeByte(OBJECT);
+                this.written.put(data, this.written.size());
+                this.out.writeInt(node.members.size());
+                for (var member : node.members.entrySet()) {
+                    writeString(this.out, member.getKey());
+                    write(member.getValue());
+                }
+            } else if (data instanceof StructuredClone.ArrayNode node) {
+                this.out.writeByte(ARRAY);
+                this.written.put(data, this.written.size());
+                this.out.writeInt(node.elements.size());
+                for (var element : node.elements) {
+                    write(element);
+                }
+            } else if (data instanceof StructuredClone.BufferNode node) {
+                this.out.writeByte(BUFFER);
+                this.written.put(data, this.written.size());
+                var buffer = node.buffer.duplicate().clear();
+                this.out.writeInt(buffer.remaining());
+                var chunk = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+                while (buffer.hasRemaining()) {
+                    var length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    this.out.write(chunk, 0, length);
+                }
+            } else if (data instanceof StructuredClone.TypedArrayNode node) {
+                // numbered after its buffer, the reader can only create it then
+                this.out.writeByte(TYPED_ARRAY);
+                writeString(this.out, node.type());
+                write(node.buffer());
+                this.out.writeLong(node.byteOffset());
+                this.out.writeLong(node.length());
+                this.written.put(data, this.written.size());
+            } else if (data instanceof StructuredClone.DateNode node) {
+                this.out.writeByte(DATE);
+                this.written.put(data, this.written.size());
+                this.out.writeDouble(node.time());
+            } else if (data instanceof StructuredClone.StreamNode node) {
+                // already detached from the sender, nobody else can use it
+                node.end().stream().abort("The stream was sent to another process");
+                throw new IllegalArgumentException("DataCloneError: a stream can not be sent to another process");
+            } else if (data instanceof StructuredClone.SharedNode) {
+                throw new IllegalArgumentException(
+                        "DataCloneError: a SharedArrayBuffer can not be sent to another process");
+            } else {
+                throw new IllegalArgumentException("DataCloneError: value can not be sent to another process");
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final DataInputStream in;
+        private final List<Object> read = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Object read() throws IOException {
+            var tag = this.in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case UNDEFINED:
+                    return StructuredClone.Undefined.INSTANCE;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case INT:
+                    return this.in.readInt();
+                case DOUBLE:
+                    return this.in.readDouble();
+                case STRING:
+                    return readString(this.in);
+                case REFERENCE:
+                    return this.read.get(this.in.readInt());
+                case OBJECT: {
+                    var node = new StructuredClone.ObjectNode();
+                    this.read.add(node);
+                    var size = this.in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        var key = readString(this.in);
+                        node.members.put(key, read());
+                    }
+                    return node;
+                }
+                case ARRAY: {
+                    var size = this.in.readInt();
+                    var node = new StructuredClone.ArrayNode(size);
+                    this.read.add(node);
+                    for (int i = 0; i < size; i++) {
+                        node.elements.add(read());
+                    }
+                    return node;
+                }
+                case BUFFER: {
+                    var bytes = new byte[this.in.readInt()];
+                    this.in.readFully(bytes);
+                    var node = new StructuredClone.BufferNode(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+                    this.read.add(node);
+                    return node;
+                }
+                case TYPED_ARRAY: {
+                    var type = readString(this.in);
+                    var buffer = read();
+                    var node = new StructuredClone.TypedArrayNode(type, buffer, this.in.readLong(),
+                            this.in.readLong());
+                    this.read.add(node);
+                    return node;
+                }
+                case DATE: {
+                    var node = new StructuredClone.DateNode(this.in.readDouble());
+                    this.read.add(node);
+                    return node;
+                }
+                default:
+                    throw new IOException("Unknown tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.coruscation.graaljs_event;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.io.IOAccess;
+
+/**
+ * Entry point of a worker process, spawned by {@link ProcessWorker} with the
+ * path of the socket to connect to.
+ *
+ * The first frame names the script to run. It is evaluated in a fresh
+ * {@link EContext} set up like an in process worker's, so the script can
+ * not tell the difference. The process exits when the parent closes the
+ * link, or goes away. If the script fails, or a message can not be queued,
+ * the error is reported to the parent, which terminates the worker, and the
+ * process exits with status 1.
+ *
+ * Worker contexts are created with IO access (to load the script and its
+ * imports) and default options otherwise, see
+ * {@link EContext.Builder#workerTransport}. Other polyglot options can be
+ * passed as {@code -Dpolyglot.<option>=<value>} in
+ * {@link EContext.Builder#workerJvmOptions(java.util.List)}.
+ */
+final class WorkerHost {
+
+    private static volatile boolean failed = false;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+        var eContext = EContext.newBuilder(Context.newBuilder("js").allowIO(IOAccess.ALL)).build();
+        var link = new SocketLink();
+        var closed = new CountDownLatch(1);
+        link.start(channel, "Worker link", frame -> {
+            try {
+                switch (frame.kind()) {
+                    case SocketLink.HELLO -> run(eContext, link, WireFormat.decodeHello(frame.payload()));
+                    // in order: run() posted the setup before the reader gets here
+                    case SocketLink.MESSAGE -> eContext.sendMessage("self", WireFormat.decode(frame.payload()));
+                    default -> throw new IOException("Unexpected frame " + frame.kind());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (Mailbox.MailboxFullException | RejectedExecutionException e) {
+                // there is no sender to throw it to here
+                fail(link, e);
+            }
+        }, closed::countDown);
+        closed.await();
+        eContext.shutdown();
+        System.exit(failed ? 1 : 0);
+    }
+
+    // the parent terminates the worker and closes the link in turn
+    private static void fail(SocketLink link, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        failed = true;
+        var message = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+        link.send(SocketLink.ERROR, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void run(EContext eContext, SocketLink link, WireFormat.Hello hello) {
+        var script = Path.of(hello.script());
+        Source source;
+        try {
+            source = SourceCache.get(script, hello.module());
+        } catch (IOException e) {
+            fail(link, e);
+            return;
+        }
+        if (hello.mailbox() != null) {
+            eContext.setMailbox("self", hello.mailbox());
+        }
+        eContext.evalAsync(() -> {
+            var eventLoop = eContext.getEventLoop();
+            eventLoop.setThreadName("JS Worker Thread " + script.getFileName());
+            eContext.setupWorker(message -> link.send(SocketLink.MESSAGE, WireFormat.encode(message)));
+            if (ProcessWorker.isFlowControlled(hello.mailbox())) {
+                var onMessage = eventLoop.getHandlers().get("self");
+                eventLoop.putMessageHandler("self", data -> {
+                    try {
+                        onMessage.accept(data);
+                    } finally {
+                        // the parent sends the next one
+                        link.send(SocketLink.DELIVERED, new byte[0]);
+                    }
+                });
+            }
+            eContext.getJsContext().eval(source);
+        }).exceptionally(e -> {
+            fail(link, e);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package net.coruscation.graaljs_event;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Supplies the contexts that {@code new Worker(...)} runs in, for every
+ * {@link EContext} created from one {@link EContext.Builder}.
+ *
+ * Contexts are taken from an {@link EContextPool} that keeps
+ * {@code prespawnedWorkers} of them initialized ahead of time, so starting a
+ * worker only evaluates its (cached) script. The pool's size caps the number
+ * of live workers. A worker script runs at the top level of its context, so a
+ * context is not reused once a worker ran in it: {@code terminate()} shuts it
+ * down, which releases its thread and its slot.
+ */
+class WorkerManager {
+
+    private final EContextPool pool;
+    private final int maxWorkers;
+
+    WorkerManager(EContext.Builder options, int prespawnedWorkers, int maxWorkers, Duration idleTimeout) {
+        this.maxWorkers = maxWorkers;
+        this.pool = new EContextPool(() -> new EContext(options), prespawnedWorkers, maxWorkers, idleTimeout);
+    }
+
+    /**
+     * A context for a new worker, fails when {@code maxWorkers} workers are
+     * alive.
+     */
+    EContext acquire() {
+        try {
+            return this.pool.borrow(Duration.ZERO);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Too many workers, the limit is " + this.maxWorkers);
+        }
+    }
+
+    /**
+     * Shut down the context of a terminated worker and free its slot.
+     */
+    void terminate(EContext eContext) {
+        this.pool.invalidate(eContext);
+    }
+
+    EContextPool.Metrics getMetrics() {
+        return this.pool.getMetrics();
+    }
+
+    void close() {
+        this.pool.close();
+    }
+}
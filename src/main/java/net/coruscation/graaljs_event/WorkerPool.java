@@ -0,0 +1,309 @@
+package net.coruscation.graaljs_event;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+
+/**
+ * Runs a js function over many inputs on a fixed set of contexts, one per
+ * core by default, see {@link #map(Source, String, List)}.
+ *
+ * Inputs are dealt to the contexts round robin, each into a deque of its
+ * own, so results are done roughly in input order and the ordered stream of
+ * results does not wait on one context's backlog. Every context keeps
+ * {@link #PIPELINE_DEPTH} calls queued on its event loop, so it moves on to
+ * the next input as soon as one is done instead of waiting for the host to
+ * hand it one. A context whose deque ran dry steals from the back of the
+ * fullest one, so skewed inputs do not leave cores idle.
+ *
+ * Contexts run on event loop threads of their own and share no js state.
+ * Build them with a shared engine ({@link EContext.Builder#sharedEngine}) so
+ * the script is compiled once for all of them.
+ */
+public final class WorkerPool implements AutoCloseable {
+
+    static final int PIPELINE_DEPTH = 2;
+
+    private final List<Worker> workers;
+    private final Set<Job<?>> jobs = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    private WorkerPool(List<Worker> workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * A pool of a context per available processor, built from
+     * {@code builder}.
+     */
+    public static WorkerPool create(EContext.Builder builder) {
+        return create(builder, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static WorkerPool create(EContext.Builder builder, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException();
+        }
+        var workers = new ArrayList<Worker>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                workers.add(new Worker(builder.build()));
+            }
+        } catch (RuntimeException e) {
+            for (var worker : workers) {
+                worker.eContext.shutdownAsync();
+            }
+            throw e;
+        }
+        return new WorkerPool(List.copyOf(workers));
+    }
+
+    public int size() {
+        return this.workers.size();
+    }
+
+    /**
+     * Call the global function {@code function}, defined by {@code script},
+     * on each of {@code inputs}, see {@link #map(Source, String, List, Function)}.
+     * Results are converted by {@link #toJava(Value)}.
+     */
+    public Stream<Object> map(Source script, String function, List<?> inputs) {
+        return map(script, function, inputs, WorkerPool::toJava);
+    }
+
+    /**
+     * Call the global function {@code function}, defined by {@code script},
+     * on each of {@code inputs}, spread over the pool's contexts.
+     *
+     * {@code script} is evaluated once per context, the first time it is
+     * used there. Inputs are passed as polyglot values: strings, numbers and
+     * booleans become js primitives. If the function returns a promise, its
+     * value is the result. {@code result} converts a result to Java on the
+     * context's event loop, while the js value is still usable.
+     *
+     * Returns the results in the order of {@code inputs}, as soon as each
+     * one and those before it are done; the error of a call that threw, or
+     * whose promise was rejected, is rethrown by the stream when it gets to
+     * it. Closing the stream drops inputs that were
+     * not started yet. Do not consume it on an event loop of the pool.
+     */
+    public <R> Stream<R> map(Source script, String function, List<?> inputs, Function<Value, R> result) {
+        if (this.closed) {
+            throw new IllegalStateException("WorkerPool is closed");
+        }
+        // a snapshot, unlike List.copyOf it keeps null inputs
+        var job = new Job<>(script, function, inputs.stream().toList(), result);
+        this.jobs.add(job);
+        job.start();
+        return job.stream();
+    }
+
+    /**
+     * Strings, numbers, booleans and host objects as such, {@code null} and
+     * {@code undefined} as {@code null}, anything else as its JSON text.
+     */
+    public static Object toJava(Value value) {
+        if (value.isNull()) {
+            return null;
+        }
+        if (value.isBoolean()) {
+            return value.asBoolean();
+        }
+        if (value.isString()) {
+            return value.asString();
+        }
+        if (value.isNumber()) {
+            return value.fitsInInt() ? (Object) value.asInt() : (Object) value.asDouble();
+        }
+        if (value.isHostObject()) {
+            return value.asHostObject();
+        }
+        var json = value.getContext().getBindings("js").getMember("JSON").invokeMember("stringify", value);
+        return json.isString() ? json.asString() : null;
+    }
+
+    /**
+     * Cancel running {@code map}s and close the contexts.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (var job : List.copyOf(this.jobs)) {
+            job.cancel();
+        }
+        for (var worker : this.workers) {
+            worker.eContext.close();
+        }
+    }
+
+    private static final class Worker {
+        final EContext eContext;
+        // scripts evaluated in the context, only used on its event loop
+        private final Set<Source> evaluated = new HashSet<>();
+
+        Worker(EContext eContext) {
+            this.eContext = eContext;
+        }
+
+        Value function(Source script, String function) {
+            var jsContext = this.eContext.getJsContext();
+            if (this.evaluated.add(script)) {
+                jsContext.eval(script);
+            }
+            var f = jsContext.getBindings("js").getMember(function);
+            if (f == null || !f.canExecute()) {
+                throw new IllegalArgumentException("Not a function: " + function);
+            }
+            return f;
+        }
+    }
+
+    /**
+     * One {@code map}: the inputs left for each context and the results.
+     */
+    private final class Job<R> {
+        private final Source script;
+        private final String function;
+        private final List<?> inputs;
+        private final Function<Value, R> result;
+        private final List<CompletableFuture<R>> results;
+        // indices of the inputs not started yet, by context
+        private final List<LinkedBlockingDeque<Integer>> queues;
+        private volatile boolean cancelled = false;
+
+        Job(Source script, String function, List<?> inputs, Function<Value, R> result) {
+            this.script = script;
+            this.function = function;
+            this.inputs = inputs;
+            this.result = result;
+            this.results = new ArrayList<>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                this.results.add(new CompletableFuture<>());
+            }
+            this.queues = new ArrayList<>(workers.size());
+            for (int w = 0; w < workers.size(); w++) {
+                this.queues.add(new LinkedBlockingDeque<>());
+            }
+        }
+
+        void start() {
+            for (int i = 0; i < this.inputs.size(); i++) {
+                this.queues.get(i % workers.size()).add(i);
+            }
+            CompletableFuture.allOf(this.results.toArray(CompletableFuture[]::new))
+                    .whenComplete((ignored, error) -> jobs.remove(this));
+            for (int w = 0; w < workers.size(); w++) {
+                for (int d = 0; d < PIPELINE_DEPTH; d++) {
+                    next(w);
+                }
+            }
+        }
+
+        /**
+         * Queue the next input on context {@code w}, its own or a stolen one.
+         * Called once per input done, so {@link #PIPELINE_DEPTH} stay queued.
+         */
+        private void next(int w) {
+            if (this.cancelled) {
+                return;
+            }
+            var index = this.queues.get(w).pollFirst();
+            if (index == null) {
+                index = steal();
+            }
+            if (index == null) {
+                return;
+            }
+            var i = (int) index;
+            var slot = this.results.get(i);
+            try {
+                // failed if the context closes before it gets to it
+                workers.get(w).eContext.eventLoop.post(() -> run(w, i), slot);
+            } catch (RejectedExecutionException e) {
+                slot.completeExceptionally(e);
+            }
+        }
+
+        // from the back of the fullest deque, where the inputs needed last are
+        private Integer steal() {
+            LinkedBlockingDeque<Integer> victim = null;
+            for (var queue : this.queues) {
+                if (victim == null || queue.size() > victim.size()) {
+                    victim = queue;
+                }
+            }
+            return victim == null ? null : victim.pollLast();
+        }
+
+        private void run(int w, int index) {
+            if (this.cancelled) {
+                return;
+            }
+            var slot = this.results.get(index);
+            // a promise is settled by a later task, the next input is queued meanwhile
+            slot.whenComplete((ignored, error) -> next(w));
+            try {
+                Object input = this.inputs.get(index);
+                var value = workers.get(w).function(this.script, this.function).execute(input);
+                // a rejection fails the slot like a throw, see EContext.settle()
+                EContext.settle(value, this.result, slot);
+            } catch (RuntimeException e) {
+                slot.completeExceptionally(e);
+            }
+        }
+
+        void cancel() {
+            this.cancelled = true;
+            for (var queue : this.queues) {
+                queue.clear();
+            }
+            for (var slot : this.results) {
+                slot.cancel(false);
+            }
+        }
+
+        Stream<R> stream() {
+            var iterator = new Iterator<R>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < results.size();
+                }
+
+                @Override
+                public R next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        return results.get(this.next++).join();
+                    } catch (CompletionException e) {
+                        throw e.getCause() instanceof RuntimeException cause ? cause : e;
+                    } catch (CancellationException e) {
+                        throw new IllegalStateException("WorkerPool.map was cancelled", e);
+                    }
+                }
+            };
+            return StreamSupport.stream(Spliterators.spliterator(iterator, results.size(),
+                    Spliterator.ORDERED | Spliterator.SIZED), false).onClose(this::cancel);
+        }
+    }
+}
@@ -1,5 +1,156 @@
+if (typeof globalThis.queueMicrotask !== 'function') {
+    globalThis.queueMicrotask = function (callback) {
+        if (typeof callback !== 'function') {
+            throw new TypeError('queueMicrotask requires a function');
+        }
+        Promise.resolve().then(() => callback());
+    }
+}
+
+// ArrayBuffers backed by a host ByteBuffer, see StructuredClone.java
+const _hostBuffers = new WeakMap();
+
+globalThis._wrapHostBuffer = function (byteBuffer) {
+    const buffer = new ArrayBuffer(byteBuffer);
+    _hostBuffers.set(buffer, byteBuffer);
+    return buffer;
+}
+
+globalThis._hostBufferOf = function (buffer) {
+    return _hostBuffers.get(buffer);
+}
+
+// Detach a transferred buffer from the sender. Buffers backed by host memory
+// can not be, they stay usable, see StructuredClone.java
+globalThis._detachArrayBuffer = function (buffer) {
+    if (typeof buffer.transfer === 'function' && !_hostBuffers.has(buffer)) {
+        try {
+            buffer.transfer(0);
+        } catch (e) {
+            // already detached
+        }
+    }
+}
+
+// SharedArrayBuffers backed by host memory so they can be posted to workers,
+// see SharedMemory.java. Requires host buffer access.
+const _sharedRegions = new WeakMap();
+const _NativeSharedArrayBuffer = globalThis.SharedArrayBuffer;
+
+globalThis._wrapSharedRegion = function (region) {
+    const buffer = _wrapHostBuffer(_sharedMemory('buffer', region));
+    _sharedRegions.set(buffer, region);
+    return buffer;
+}
+
+globalThis._sharedRegionOf = function (buffer) {
+    return _sharedRegions.get(buffer);
+}
+
+// Installed when the context allows host buffer access, which host backed
+// buffers require; otherwise the native SharedArrayBuffer stays.
+globalThis._setup_shared_memory = function () {
+    globalThis.SharedArrayBuffer = function SharedArrayBuffer(length) {
+        if (new.target === undefined) {
+            throw new TypeError("Constructor SharedArrayBuffer requires 'new'");
+        }
+        return _wrapSharedRegion(_sharedMemory('allocate', length));
+    }
+
+    Object.defineProperty(globalThis.SharedArrayBuffer, Symbol.hasInstance, {
+        value: function (value) {
+            return _sharedRegions.has(value)
+                || (_NativeSharedArrayBuffer !== undefined && value instanceof _NativeSharedArrayBuffer);
+        }
+    });
+
+    // Atomics on host backed SharedArrayBuffers are implemented on the host,
+    // everything else goes to the native implementation.
+    (function () {
+        const ops = ['load', 'store', 'add', 'sub', 'and', 'or', 'xor',
+                     'exchange', 'compareExchange', 'wait', 'notify'];
+        for (const op of ops) {
+            const native = Atomics[op];
+            Object.defineProperty(Atomics, op, {
+                value: function (typedArray, index, ...args) {
+                    const region = typedArray !== null && typeof typedArray === 'object'
+                          ? _sharedRegions.get(typedArray.buffer) : undefined;
+                    if (region === undefined) {
+                        return native.call(Atomics, typedArray, index, ...args);
+                    }
+                    const unsigned = typedArray instanceof Uint32Array;
+                    if (!(typedArray instanceof Int32Array) && !unsigned) {
+                        throw new TypeError('Atomics on a shared buffer requires an Int32Array or Uint32Array');
+                    }
+                    if (unsigned && op === 'wait') {
+                        throw new TypeError('Atomics.wait requires an Int32Array');
+                    }
+                    const i = Number(index);
+                    if (!Number.isInteger(i) || i < 0 || i >= typedArray.length) {
+                        throw new RangeError('Invalid atomic access index');
+                    }
+                    const byteIndex = typedArray.byteOffset + i * 4;
+                    let result;
+                    if (op === 'wait') {
+                        const timeout = args[1] === undefined ? Infinity : Number(args[1]);
+                        result = _sharedMemory(op, region, byteIndex, args[0] | 0, timeout);
+                    } else if (op === 'notify') {
+                        const count = args[0] === undefined ? 0x7fffffff : Math.max(0, Math.min(args[0], 0x7fffffff)) | 0;
+                        result = _sharedMemory(op, region, byteIndex, count);
+                    } else {
+                        result = _sharedMemory(op, region, byteIndex, ...args.map(v => v | 0));
+                    }
+                    return unsigned && typeof result === 'number' ? result >>> 0 : result;
+                },
+                writable: true,
+                configurable: true
+            });
+        }
+    })();
+}
+
+// postMessage(msg, transfer) and postMessage(msg, { transfer })
+function _transferList(options) {
+    if (options === undefined || options === null) {
+        return undefined;
+    }
+    return Array.isArray(options) ? options : options.transfer;
+}
+
+// A batch of [data, timeStamp, ports] entries, see MessageBatcher.java. It goes to
+// onmessages as an array of events if it is set, otherwise to onmessage one
+// by one, where an error does not keep the rest from being delivered.
+function _dispatchBatch(messages, onmessages, event, onmessage) {
+    if (onmessages) {
+        onmessages(messages.map(([data, timeStamp, ports]) => event(data, timeStamp, ports)));
+        return;
+    }
+    let error = undefined;
+    for (const [data, timeStamp, ports] of messages) {
+        try {
+            onmessage(data, timeStamp, ports);
+        } catch (e) {
+            if (error === undefined) {
+                error = e;
+            }
+        }
+    }
+    if (error !== undefined) {
+        throw error;
+    }
+}
+
+// _postMessage returns an error message when the receiver's mailbox is full
+// and its overflow policy is 'fail', see Mailbox.java
+function _throwIfFull(error) {
+    if (error) {
+        throw new Error(error);
+    }
+}
+
 class Worker {
     onmessage = null;
+    onmessages = null;
     onerror = null;
     onclose = null;
     _eventContext = null;
@@ -8,45 +159,485 @@ class Worker {
         this._eventContext = _newEContext(this, url, options);
     }
 
-    postMessage(msg) {
-        this._postMessage(
-            JSON.stringify({
-                data: msg,
-                type: 'message',
-                timeStamp: Date.now()
-            }));
+    postMessage(msg, options) {
+        _throwIfFull(this._postMessage(msg, _transferList(options)));
     }
 
     terminate() {
+        this._terminate();
+    }
 
+    _event(data, timeStamp, ports) {
+        return {
+            data: data,
+            type: 'message',
+            timeStamp: timeStamp,
+            ports: ports ?? [],
+            target: this,
+            currentTarget: this,
+        };
     }
 
-    _onmessage(msg_str) {
+    _onmessage(data, timeStamp, ports) {
         if (this.onmessage) {
-            this.onmessage.call(this,
-                {
-                    ...JSON.parse(msg_str),
-                    target: this,
-                    currentTarget: this,
-                });
+            this.onmessage.call(this, this._event(data, timeStamp, ports));
+        }
+    }
+
+    // the worker was cancelled, see ResourceViolation.java
+    _onerror(message) {
+        if (this.onerror) {
+            this.onerror.call(this, {
+                type: 'error',
+                message: message,
+                target: this,
+                currentTarget: this,
+            });
+        }
+    }
+
+    _onmessages(messages) {
+        _dispatchBatch(messages,
+                       this.onmessages && (events => this.onmessages.call(this, events)),
+                       (data, timeStamp, ports) => this._event(data, timeStamp, ports),
+                       (data, timeStamp, ports) => this._onmessage(data, timeStamp, ports));
+    }
+}
+
+// One end of a MessageChannel, backed by a host port, see ChannelPort.java.
+// Messages are queued until the port is started by setting onmessage or
+// calling start().
+class MessagePort {
+    _port = null;
+    _onmessage = null;
+    onmessageerror = null;
+
+    constructor(port) {
+        if (port === undefined) {
+            throw new TypeError('Illegal constructor');
+        }
+        this._port = port;
+        _messagePort('bind', port, this);
+    }
+
+    get onmessage() {
+        return this._onmessage;
+    }
+
+    set onmessage(handler) {
+        this._onmessage = handler;
+        this.start();
+    }
+
+    postMessage(msg, options) {
+        _messagePort('post', this._port, msg, _transferList(options));
+    }
+
+    start() {
+        _messagePort('start', this._port);
+    }
+
+    close() {
+        _messagePort('close', this._port);
+    }
+
+    _dispatch(data, timeStamp, ports) {
+        if (this._onmessage) {
+            this._onmessage.call(this, {
+                data: data,
+                type: 'message',
+                timeStamp: timeStamp,
+                ports: ports ?? [],
+                target: this,
+                currentTarget: this,
+            });
+        }
+    }
+}
+
+class MessageChannel {
+    constructor() {
+        const ports = _messagePort('create');
+        this.port1 = new MessagePort(ports[0]);
+        this.port2 = new MessagePort(ports[1]);
+    }
+}
+
+globalThis._portOf = function (value) {
+    return value instanceof MessagePort ? value._port : undefined;
+}
+
+globalThis.MessagePort = MessagePort;
+globalThis.MessageChannel = MessageChannel;
+
+// Data handed to the host as bytes, strings are written as UTF-8
+function _bytesOf(data) {
+    if (data instanceof ArrayBuffer || typeof data === 'string') {
+        return data;
+    }
+    if (ArrayBuffer.isView(data)) {
+        return data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
+    }
+    throw new TypeError('data must be a string, an ArrayBuffer or a view of one');
+}
+
+function _streamCall(op, end, ...args) {
+    return new Promise((resolve, reject) => {
+        _stream(op, end, resolve, reason => reject(new Error(reason)), ...args);
+    });
+}
+
+// The ends of a StreamChannel, backed by a host ring buffer, see
+// ByteStream.java. Only the host creates them; either end can be transferred
+// with postMessage while it is not locked.
+class ReadableStream {
+    _end = null;
+    _reader = null;
+
+    constructor(end) {
+        if (end === undefined) {
+            throw new TypeError('Illegal constructor');
+        }
+        this._end = end;
+    }
+
+    get locked() {
+        return this._reader !== null;
+    }
+
+    // chunks are Uint8Arrays, or strings with { encoding: 'utf-8' }
+    getReader(options) {
+        if (this._reader) {
+            throw new TypeError('ReadableStream is locked');
         }
+        const encoding = options?.encoding;
+        if (encoding != null && !/^utf-?8$/i.test(encoding)) {
+            throw new RangeError('Unsupported encoding: ' + encoding);
+        }
+        _stream('lock', this._end, true);
+        this._reader = new ReadableStreamDefaultReader(this, encoding != null);
+        return this._reader;
+    }
+
+    cancel(reason) {
+        if (this._reader) {
+            return Promise.reject(new TypeError('ReadableStream is locked'));
+        }
+        _stream('abort', this._end, String(reason ?? 'The stream was cancelled'));
+        return Promise.resolve();
+    }
+
+    // leaving the loop early cancels the stream
+    async *[Symbol.asyncIterator]() {
+        const reader = this.getReader();
+        let done = false;
+        try {
+            while (true) {
+                const result = await reader.read();
+                if (result.done) {
+                    done = true;
+                    return;
+                }
+                yield result.value;
+            }
+        } finally {
+            if (!done) {
+                reader.cancel();
+            }
+            reader.releaseLock();
+        }
+    }
+}
+
+class ReadableStreamDefaultReader {
+    _stream = null;
+    _text = false;
+    _reads = Promise.resolve();
+
+    constructor(stream, text) {
+        this._stream = stream;
+        this._text = text;
+    }
+
+    // the host allows one pending read, later calls wait for the earlier ones
+    read() {
+        const end = this._stream._end;
+        const read = this._reads.catch(() => {}).then(() => _streamCall('read', end, this._text)).then(
+            chunk => chunk === null ? { value: undefined, done: true }
+                : { value: this._text ? chunk : new Uint8Array(chunk), done: false });
+        this._reads = read;
+        return read;
+    }
+
+    cancel(reason) {
+        _stream('abort', this._stream._end, String(reason ?? 'The stream was cancelled'));
+        return Promise.resolve();
+    }
+
+    releaseLock() {
+        if (this._stream._reader === this) {
+            this._stream._reader = null;
+            _stream('lock', this._stream._end, false);
+        }
+    }
+}
+
+class WritableStream {
+    _end = null;
+    _writer = null;
+
+    constructor(end) {
+        if (end === undefined) {
+            throw new TypeError('Illegal constructor');
+        }
+        this._end = end;
+    }
+
+    get locked() {
+        return this._writer !== null;
+    }
+
+    getWriter() {
+        if (this._writer) {
+            throw new TypeError('WritableStream is locked');
+        }
+        _stream('lock', this._end, true);
+        this._writer = new WritableStreamDefaultWriter(this);
+        return this._writer;
+    }
+
+    close() {
+        if (this._writer) {
+            return Promise.reject(new TypeError('WritableStream is locked'));
+        }
+        _stream('close', this._end);
+        return Promise.resolve();
+    }
+
+    abort(reason) {
+        if (this._writer) {
+            return Promise.reject(new TypeError('WritableStream is locked'));
+        }
+        _stream('abort', this._end, String(reason ?? 'The stream was aborted'));
+        return Promise.resolve();
+    }
+}
+
+class WritableStreamDefaultWriter {
+    _stream = null;
+    _writes = Promise.resolve();
+
+    constructor(stream) {
+        this._stream = stream;
+    }
+
+    // resolves once the chunk is in the host buffer, so awaiting every write
+    // keeps at most highWaterMark bytes in flight
+    write(chunk) {
+        const end = this._stream._end;
+        const bytes = _bytesOf(chunk);
+        const write = this._writes.catch(() => {}).then(() => _streamCall('write', end, bytes));
+        this._writes = write;
+        return write;
+    }
+
+    // resolves when earlier writes are done
+    get ready() {
+        return this._writes.catch(() => {});
+    }
+
+    // bytes that can be written without waiting
+    get desiredSize() {
+        return _stream('desiredSize', this._stream._end);
+    }
+
+    close() {
+        const end = this._stream._end;
+        const close = this._writes.then(() => _stream('close', end));
+        this._writes = close;
+        return close;
+    }
+
+    abort(reason) {
+        _stream('abort', this._stream._end, String(reason ?? 'The stream was aborted'));
+        return Promise.resolve();
+    }
+
+    releaseLock() {
+        if (this._stream._writer === this) {
+            this._stream._writer = null;
+            _stream('lock', this._stream._end, false);
+        }
+    }
+}
+
+// A stream of bytes from writable to readable, which can be transferred to
+// different contexts. Writes wait while highWaterMark bytes are unread.
+class StreamChannel {
+    constructor(options) {
+        const ends = _stream('create', options?.highWaterMark ?? 0);
+        this.readable = new ReadableStream(ends[0]);
+        this.writable = new WritableStream(ends[1]);
     }
 }
 
+globalThis._streamOf = function (value) {
+    return value instanceof ReadableStream || value instanceof WritableStream ? value._end : undefined;
+}
+
+globalThis._wrapStream = function (end, reading) {
+    return reading ? new ReadableStream(end) : new WritableStream(end);
+}
+
+globalThis.ReadableStream = ReadableStream;
+globalThis.WritableStream = WritableStream;
+globalThis.StreamChannel = StreamChannel;
+
 globalThis.Worker = Worker;
 globalThis._setup_worker = function() {
-    globalThis.postMessage = function (msg) {
-        globalThis._postMessage(
-            JSON.stringify({
-                data: msg,
-                type: 'message',
-                timeStamp: Date.now()
-            }));
+    globalThis.postMessage = function (msg, options) {
+        _throwIfFull(globalThis._postMessage(msg, _transferList(options)));
     }
 
-    globalThis._onmessage = function (msg) {
+    const event = (data, timeStamp, ports) => ({
+        data: data,
+        type: 'message',
+        timeStamp: timeStamp,
+        ports: ports ?? []
+    });
+
+    globalThis._onmessage = function (data, timeStamp, ports) {
         if(globalThis.onmessage) {
-            globalThis.onmessage(JSON.parse(msg));
+            globalThis.onmessage(event(data, timeStamp, ports));
         }
     }
+
+    globalThis._onmessages = function (messages) {
+        _dispatchBatch(messages, globalThis.onmessages, event, globalThis._onmessage);
+    }
+}
+
+// Non-blocking file and socket I/O, installed when EContext.Builder#asyncIO
+// is enabled, see AsyncIO.java. Every operation returns a promise settled by
+// a later task.
+globalThis._setup_io = function() {
+    const call = (op, ...args) => new Promise((resolve, reject) => {
+        _asyncIO(op, resolve, message => reject(new Error(message)), ...args);
+    });
+
+    // The host channel allows one pending read and one pending write, later
+    // calls wait for the earlier ones.
+    class Socket {
+        _handle = null;
+        _reads = Promise.resolve();
+        _writes = Promise.resolve();
+
+        constructor(handle) {
+            this._handle = handle;
+        }
+
+        // resolves to an ArrayBuffer, or null at the end of the stream
+        read(maxBytes = 64 * 1024) {
+            const read = this._reads.catch(() => {}).then(() => call('read', this._handle, maxBytes | 0));
+            this._reads = read;
+            return read;
+        }
+
+        // resolves to the number of bytes written
+        write(data) {
+            const bytes = _bytesOf(data);
+            const write = this._writes.catch(() => {}).then(() => call('write', this._handle, bytes));
+            this._writes = write;
+            return write;
+        }
+
+        close() {
+            _asyncIO('close', null, null, this._handle);
+        }
+    }
+
+    globalThis.io = {
+        // resolves to an ArrayBuffer, or a string with { encoding: 'utf-8' }
+        readFile(path, options) {
+            return call('readFile', String(path), options?.encoding ?? null);
+        },
+
+        // resolves to the number of bytes written
+        writeFile(path, data, options) {
+            return call('writeFile', String(path), _bytesOf(data), !!options?.append);
+        },
+
+        // { host, port } for TCP, { path } for a Unix domain socket
+        async connect(address) {
+            const handle = await call('connect', address.path ?? null, address.host ?? 'localhost',
+                                      address.port | 0);
+            return new Socket(handle);
+        },
+    };
+}
+
+// Own properties of the globals and of the objects they hold, built-in
+// prototypes included, see EContext.reset(). Returns a function that puts
+// back whatever changed since and tells whether it could.
+globalThis._snapshotGlobals = function () {
+    const { ownKeys, getOwnPropertyDescriptor, defineProperty, deleteProperty, getPrototypeOf,
+            setPrototypeOf } = Reflect;
+    const is = Object.is;
+    const snapshots = [];
+    const seen = new Set();
+    const visit = (target, depth) => {
+        if (seen.has(target)) {
+            return;
+        }
+        seen.add(target);
+        let properties;
+        try {
+            properties = new Map(ownKeys(target).map(key => [key, getOwnPropertyDescriptor(target, key)]));
+        } catch (e) {
+            // host objects
+            return;
+        }
+        snapshots.push({ target, prototype: getPrototypeOf(target), properties });
+        if (depth < 2) {
+            for (const descriptor of properties.values()) {
+                const value = descriptor.value;
+                if ((typeof value === 'object' && value !== null) || typeof value === 'function') {
+                    visit(value, depth + 1);
+                }
+            }
+        }
+    };
+    visit(globalThis, 0);
+
+    const same = (a, b) => is(a.value, b.value) && a.get === b.get && a.set === b.set
+          && a.writable === b.writable && a.enumerable === b.enumerable && a.configurable === b.configurable;
+
+    return function () {
+        let clean = true;
+        for (const { target, prototype, properties } of snapshots) {
+            try {
+                for (const key of ownKeys(target)) {
+                    if (!properties.has(key)) {
+                        clean = deleteProperty(target, key) && clean;
+                    }
+                }
+                for (const [key, descriptor] of properties) {
+                    if (typeof target === 'function' && (key === 'arguments' || key === 'caller')) {
+                        // the engine's view of a running call, not state
+                        continue;
+                    }
+                    const current = getOwnPropertyDescriptor(target, key);
+                    if (current === undefined || !same(current, descriptor)) {
+                        clean = defineProperty(target, key, descriptor) && clean;
+                    }
+                }
+                if (getPrototypeOf(target) !== prototype) {
+                    clean = setPrototypeOf(target, prototype) && clean;
+                }
+            } catch (e) {
+                clean = false;
+            }
+        }
+        return clean;
+    };
 }
@@ -0,0 +1,78 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import org.graalvm.polyglot.Context;
+import org.junit.jupiter.api.Test;
+
+public class EContextPoolTest {
+
+    @Test
+    public void recycleQuiescentContextTest() {
+        try (var pool = new EContextPool(EContext.newBuilder(Context.newBuilder("js")).sharedEngine(true),
+                1, 2, Duration.ofMinutes(1))) {
+            var ec = pool.borrow();
+            assertEquals(3, ec.eval(() -> ec.getJsContext().eval("js", "globalThis.x = 3").asInt()));
+            pool.release(ec);
+
+            var ec2 = pool.borrow();
+            assertSame(ec, ec2);
+            // globals defined by the previous borrower are gone
+            assertTrue(ec2.eval(() -> ec2.getJsContext().eval("js", "typeof x === 'undefined'").asBoolean()));
+            pool.release(ec2);
+
+            var metrics = pool.getMetrics();
+            assertEquals(2, metrics.borrows());
+            assertEquals(2, metrics.hits());
+            assertEquals(1.0, metrics.hitRate(), 0.0001);
+        }
+    }
+
+    @Test
+    public void restoreBaselineTest() {
+        try (var pool = new EContextPool(EContext.newBuilder(Context.newBuilder("js")), 1, 1, Duration.ofMinutes(1))) {
+            var ec = pool.borrow();
+            ec.eval("globalThis.setTimeout = () => 'mine'; Object.prototype.polluted = true");
+            pool.release(ec);
+
+            var ec2 = pool.borrow();
+            assertSame(ec, ec2);
+            assertTrue(ec2.eval(() -> ec2.getJsContext()
+                    .eval("js", "setTimeout(() => {}) !== 'mine' && ({}).polluted === undefined").asBoolean()));
+            pool.release(ec2);
+        }
+    }
+
+    @Test
+    public void releaseTwiceTest() {
+        try (var pool = new EContextPool(EContext.newBuilder(Context.newBuilder("js")), 0, 1, Duration.ofMinutes(1))) {
+            var ec = pool.borrow();
+            pool.release(ec);
+            assertThrows(IllegalArgumentException.class, () -> pool.release(ec));
+            assertEquals(1, pool.getMetrics().idle());
+            assertEquals(0, pool.getMetrics().active());
+        }
+    }
+
+    @Test
+    public void discardBusyContextTest() {
+        try (var pool = new EContextPool(EContext.newBuilder(Context.newBuilder("js")), 1, 1, Duration.ofMinutes(1))) {
+            var ec = pool.borrow();
+            ec.eval("setTimeout(() => {}, 10000)");
+            pool.release(ec);
+            assertEquals(1, pool.getMetrics().discarded());
+            assertNotSame(ec, pool.borrow());
+        }
+    }
+
+    @Test
+    public void borrowTimeoutTest() {
+        try (var pool = new EContextPool(EContext.newBuilder(Context.newBuilder("js")), 0, 1, Duration.ofMinutes(1))) {
+            pool.borrow();
+            assertThrows(TimeoutException.class, () -> pool.borrow(Duration.ofMillis(50)));
+        }
+    }
+}
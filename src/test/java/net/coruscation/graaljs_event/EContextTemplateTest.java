@@ -0,0 +1,63 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.junit.jupiter.api.Test;
+
+public class EContextTemplateTest {
+
+    @Test
+    public void newContextTest() throws InterruptedException {
+        var bootstrap = Source.create("js", "globalThis.app = { greet: name => 'hello ' + name }");
+        try (var template = EContextTemplate.create(EContext.newBuilder(Context.newBuilder("js")),
+                List.of(bootstrap), 2)) {
+            var a = template.newContext();
+            var b = template.newContext();
+            assertEquals("hello a", a.eval(() -> a.getJsContext().eval("js", "app.greet('a')").asString()));
+            // every context runs the bootstrap on its own globals
+            a.eval("app.greet = () => 'changed'");
+            assertEquals("hello b", b.eval(() -> b.getJsContext().eval("js", "app.greet('b')").asString()));
+            for (int i = 0; i < 500 && template.getReady() < 2; i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals(2, template.getReady());
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    @Test
+    public void appendsBootstrapTest() {
+        var builder = EContext.newBuilder(Context.newBuilder("js"))
+                .bootstrap(List.of(Source.create("js", "globalThis.config = { name: 'app' }")));
+        try (var template = EContextTemplate.create(builder,
+                List.of(Source.create("js", "globalThis.app = { name: config.name }")), 0)) {
+            var ec = template.newContext();
+            assertEquals("app", ec.eval(() -> ec.getJsContext().eval("js", "app.name").asString()));
+            ec.shutdown();
+        }
+    }
+
+    @Test
+    public void bootstrapKeptOnResetTest() {
+        var builder = EContext.newBuilder(Context.newBuilder("js"))
+                .bootstrap(List.of(Source.create("js", "globalThis.app = { version: 1 }")));
+        try (var pool = new EContextPool(builder, 1, 1, Duration.ofMinutes(1))) {
+            var ec = pool.borrow();
+            ec.eval("globalThis.x = 2; app.version = 2");
+            pool.release(ec);
+
+            var ec2 = pool.borrow();
+            assertSame(ec, ec2);
+            assertTrue(ec2.eval(() -> ec2.getJsContext().eval("js", "typeof x === 'undefined' && app.version === 1")
+                    .asBoolean()));
+            pool.release(ec2);
+        }
+    }
+}
@@ -3,15 +3,34 @@ package net.coruscation.graaljs_event;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
 import java.net.URISyntaxException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.ObjectName;
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,6 +56,408 @@ public class EContextTest {
         }));
     }
 
+    @Test
+    public void setTimeoutArgumentsTest() throws InterruptedException {
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval("setTimeout((a, b) => { globalThis.sum = a + b; }, 0, 1, 2)");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(3, ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("sum").asInt();
+        }));
+    }
+
+    @Test
+    public void setIntervalTest() throws InterruptedException {
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval("globalThis.runs = 0;"
+                + "globalThis.start = performance.now();"
+                + "globalThis.interval = setInterval((a, b) => {"
+                + "  if (runs++ === 0) { globalThis.first = performance.now() - start; }"
+                + "  globalThis.args = a + b;"
+                + "}, 20, 'x', 'y')");
+        TimeUnit.MILLISECONDS.sleep(210);
+        ec.eval("clearInterval(interval)");
+        var runs = ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("runs").asInt();
+        });
+        assertTrue(runs >= 7 && runs <= 11, "runs: " + runs);
+        // the first run waits for the period too
+        assertTrue(ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("first").asDouble();
+        }) >= 19);
+        assertEquals("xy", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("args").asString();
+        }));
+        assertTrue(ec.isQuiescent());
+    }
+
+    @Test
+    public void setImmediateTest() throws InterruptedException {
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval("globalThis.order = [];"
+                + "setImmediate(x => order.push(x), 'a');"
+                + "clearImmediate(setImmediate(() => order.push('b')));"
+                + "Promise.resolve().then(() => order.push('micro'))");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals("micro,a", ec.eval(() -> {
+            return ec.getJsContext().eval("js", "order.join()").asString();
+        }));
+    }
+
+    @Test
+    public void nestedTimerClampingTest() throws InterruptedException {
+        var script = "globalThis.start = performance.now();"
+                + "(function nest(level) {"
+                + "  if (level === 10) { globalThis.elapsed = performance.now() - start; return; }"
+                + "  setTimeout(() => nest(level + 1), 0);"
+                + "})(0)";
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval(script);
+        TimeUnit.MILLISECONDS.sleep(200);
+        // levels 6 to 10 wait at least 4ms each
+        assertTrue(ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("elapsed").asDouble();
+        }) >= 20);
+
+        var highResolution = EContext.newBuilder(Context.newBuilder("js"))
+                .highResolutionTimers(true)
+                .build();
+        highResolution.eval("setTimeout(() => { globalThis.fired = performance.now(); }, 0.5)");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(highResolution.eval(() -> {
+            return highResolution.getJsContext().getBindings("js").getMember("fired").isNumber();
+        }));
+    }
+
+    @Test
+    public void closeTest() throws URISyntaxException {
+        var ec = new EContext(Context.newBuilder("js").allowIO(true));
+        var worker = Paths.get(this.getClass().getClassLoader().getResource("worker.js").toURI()).toString();
+        ec.eval(() -> {
+            ec.getJsContext().getBindings("js").putMember("workerPath", worker);
+        });
+        ec.eval("globalThis.worker = new Worker(workerPath);"
+                + "setTimeout(() => {}, 60000);"
+                + "setInterval(() => {}, 60000);"
+                + "globalThis.ran = 0;");
+        // queued behind a running task when close() is called
+        var started = new CompletableFuture<Void>();
+        ec.evalAsync(() -> {
+            started.complete(null);
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        started.join();
+        var increments = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 3; i++) {
+            increments.add(ec.evalAsync(() -> {
+                ec.getJsContext().eval("js", "ran++");
+            }));
+        }
+        var report = ec.close(Duration.ofSeconds(5));
+        increments.forEach(CompletableFuture::join);
+        assertEquals(3, report.tasksDrained());
+        assertTrue(report.timersCancelled() >= 2);
+        assertEquals(1, report.workers().size());
+        assertEquals(2, report.contexts());
+        // closing again does nothing
+        ec.close();
+    }
+
+    @Test
+    public void rejectAfterShutdownTest() throws InterruptedException, ExecutionException, TimeoutException {
+        var ec = new EContext(Context.newBuilder("js"));
+        var started = new CompletableFuture<Void>();
+        ec.evalAsync(() -> {
+            started.complete(null);
+            try {
+                TimeUnit.MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        started.get(5, TimeUnit.SECONDS);
+        // queued behind the running task, discarded by the shutdown
+        var queued = ec.evalAsync(() -> 1);
+        ec.shutdownAsync().get(5, TimeUnit.SECONDS);
+        var e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertThrows(RejectedExecutionException.class, () -> ec.evalAsync(() -> 2));
+    }
+
+    @Test
+    public void closeCancelsAtDeadlineTest() throws InterruptedException, ExecutionException, TimeoutException {
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval("setTimeout(() => { while (true) {} }, 0)");
+        var report = ec.closeAsync(Duration.ofMillis(200)).get(5, TimeUnit.SECONDS);
+        assertEquals(1, report.contexts());
+        ec.whenTerminated().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void closeLeavesNoThreadsTest() throws InterruptedException, URISyntaxException {
+        var threads = ManagementFactory.getThreadMXBean();
+        var worker = Paths.get(this.getClass().getClassLoader().getResource("worker.js").toURI()).toString();
+        new EContext(Context.newBuilder("js")).close();
+        var baseline = threads.getThreadCount();
+        for (int i = 0; i < 100; i++) {
+            var ec = new EContext(Context.newBuilder("js").allowIO(true));
+            ec.eval(() -> {
+                ec.getJsContext().getBindings("js").putMember("workerPath", worker);
+            });
+            // the worker pool's maintenance thread goes with the context too
+            ec.eval("new Worker(workerPath); setTimeout(() => {}, 60000)");
+            ec.close();
+        }
+        // event loop threads exit shortly after their executor is shut down
+        for (int i = 0; i < 100 && threads.getThreadCount() > baseline + 4; i++) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertTrue(threads.getThreadCount() <= baseline + 4);
+    }
+
+    @Test
+    public void schedulerTest() throws InterruptedException {
+        try (var scheduler = EContextScheduler.create(1, Duration.ofMillis(5))) {
+            var weight1 = scheduler.newTenant("weight1", 1, 0);
+            var weight3 = scheduler.newTenant("weight3", 3, 0);
+            var a = EContext.newBuilder(Context.newBuilder("js")).scheduler(weight1).build();
+            var b = EContext.newBuilder(Context.newBuilder("js")).scheduler(weight3).build();
+            // both loops share the scheduler's only thread
+            assertEquals(a.eval(() -> {
+                return Thread.currentThread().getName();
+            }), b.eval(() -> {
+                return Thread.currentThread().getName();
+            }));
+            var spin = "(function spin() {"
+                    + "  const end = Date.now() + 1;"
+                    + "  while (Date.now() < end) {}"
+                    + "  setImmediate(spin);"
+                    + "})()";
+            a.eval(spin);
+            b.eval(spin);
+            TimeUnit.MILLISECONDS.sleep(500);
+            assertTrue(weight3.runTime().compareTo(weight1.runTime().multipliedBy(2)) > 0,
+                    weight3.runTime() + " vs " + weight1.runTime());
+            assertTrue(weight1.slices() > 0);
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    @Test
+    public void schedulerPriorityTest() throws InterruptedException {
+        try (var scheduler = EContextScheduler.create(1, Duration.ofMillis(5))) {
+            var background = scheduler.newTenant("background", 1, 0);
+            var urgent = scheduler.newTenant("urgent", 1, 1);
+            var a = EContext.newBuilder(Context.newBuilder("js")).scheduler(background).build();
+            var b = EContext.newBuilder(Context.newBuilder("js")).scheduler(urgent).build();
+            var spin = "(function spin() {"
+                    + "  const end = Date.now() + 1;"
+                    + "  while (Date.now() < end) {}"
+                    + "  setImmediate(spin);"
+                    + "})()";
+            // a would not get to run its eval once b spins
+            a.eval(spin);
+            b.eval(spin);
+            // a lower priority only runs while no higher one has work
+            var slices = background.slices();
+            TimeUnit.MILLISECONDS.sleep(300);
+            assertEquals(slices, background.slices());
+            assertTrue(urgent.slices() > 10);
+            b.shutdown();
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertTrue(background.slices() > slices);
+            a.shutdown();
+        }
+    }
+
+    @Test
+    public void schedulerFixedDelayTest() throws InterruptedException {
+        try (var scheduler = EContextScheduler.create(1, Duration.ofMillis(5))) {
+            var tenant = scheduler.newTenant("tenant", 1, 0);
+            var ec = EContext.newBuilder(Context.newBuilder("js")).scheduler(tenant).build();
+            var starts = new ArrayList<Long>();
+            var task = ec.getEventLoop().getExecutor().scheduleWithFixedDelay(() -> {
+                synchronized (starts) {
+                    starts.add(System.nanoTime());
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(30);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }, 0, 20, TimeUnit.MILLISECONDS);
+            TimeUnit.MILLISECONDS.sleep(400);
+            task.cancel(false);
+            List<Long> runs;
+            synchronized (starts) {
+                runs = List.copyOf(starts);
+            }
+            assertTrue(runs.size() >= 2, runs.toString());
+            // the delay counts from the end of a run
+            for (int i = 1; i < runs.size(); i++) {
+                assertTrue(runs.get(i) - runs.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(50));
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+            synchronized (starts) {
+                assertTrue(starts.size() <= runs.size() + 1);
+            }
+            ec.shutdown();
+        }
+    }
+
+    @Test
+    public void asyncFileIOTest() throws IOException, InterruptedException {
+        var file = Files.createTempFile("async_io", ".txt");
+        try {
+            var ec = EContext.newBuilder(Context.newBuilder("js").allowIO(true)).asyncIO(true).build();
+            ec.eval(() -> {
+                ec.getJsContext().getBindings("js").putMember("path", file.toString());
+            });
+            ec.eval("io.writeFile(path, 'h\u00e9llo')"
+                    + ".then(n => io.writeFile(path, new Uint8Array([33]), { append: true }).then(m => n + m))"
+                    + ".then(n => io.readFile(path, { encoding: 'utf-8' }).then(text => {"
+                    + "  globalThis.result = n + ':' + text; }));"
+                    + "io.readFile(path + '.missing').catch(e => { globalThis.missing = e.message; })");
+            for (int i = 0; i < 100 && !ec.isQuiescent(); i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals("7:h\u00e9llo!", ec.eval(() -> {
+                return ec.getJsContext().getBindings("js").getMember("result").asString();
+            }));
+            assertTrue(ec.eval(() -> {
+                return ec.getJsContext().getBindings("js").getMember("missing").asString();
+            }).startsWith("NoSuchFileException"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void asyncIODeniedTest() throws InterruptedException {
+        // io does not reach further than the context's own IO access
+        var ec = EContext.newBuilder(Context.newBuilder("js")).asyncIO(true).build();
+        ec.eval("io.readFile('/etc/hostname').then(() => { globalThis.error = 'read'; },"
+                + " e => { globalThis.error = e.message; })");
+        for (int i = 0; i < 100 && !ec.isQuiescent(); i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertTrue(ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("error").asString();
+        }).startsWith("SecurityException"));
+        ec.close();
+    }
+
+    @Test
+    public void asyncSocketIOTest() throws IOException, InterruptedException {
+        var dir = Files.createTempDirectory("async_io");
+        var socket = dir.resolve("echo");
+        try (var tcp = ServerSocketChannel.open(); var unix = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            tcp.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            unix.bind(UnixDomainSocketAddress.of(socket));
+            echo(tcp);
+            echo(unix);
+            var port = ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+            var ec = EContext.newBuilder(Context.newBuilder("js").allowIO(true)).asyncIO(true).build();
+            ec.eval(() -> {
+                var bindings = ec.getJsContext().getBindings("js");
+                bindings.putMember("port", port);
+                bindings.putMember("path", socket.toString());
+            });
+            ec.eval("globalThis.result = [];"
+                    + "async function ping(address) {"
+                    + "  const socket = await io.connect(address);"
+                    + "  await socket.write('ping');"
+                    + "  const reply = await socket.read();"
+                    + "  socket.close();"
+                    + "  return String.fromCharCode(...new Uint8Array(reply));"
+                    + "}"
+                    + "ping({ host: '127.0.0.1', port }).then(reply => result.push('tcp ' + reply))"
+                    + "  .then(() => ping({ path })).then(reply => result.push('unix ' + reply))");
+            for (int i = 0; i < 100 && !ec.isQuiescent(); i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertEquals("tcp ping,unix ping", ec.eval(() -> {
+                return ec.getJsContext().eval("js", "result.join()").asString();
+            }));
+            ec.shutdown();
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    // Echoes what the first connection sends until it is closed
+    private static void echo(ServerSocketChannel server) {
+        Thread.ofVirtual().start(() -> {
+            try (var channel = server.accept()) {
+                var buffer = ByteBuffer.allocate(1024);
+                while (channel.read(buffer) > 0) {
+                    channel.write(buffer.flip());
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // the test fails on its own
+            }
+        });
+    }
+
+    @Test
+    public void hashedWheelSetTimeoutTest() throws InterruptedException {
+        var ec = EContext.newBuilder(Context.newBuilder("js"))
+                .timers(EContext.TimerBackend.HASHED_WHEEL)
+                .build();
+        ec.eval("globalThis.a = 10");
+        ec.eval("setTimeout(() => {a=a+1;}, 10)");
+        ec.eval("clearTimeout(setTimeout(() => {a=a+100;}, 10))");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals(11, ec.eval(() -> {
+            return ec.getJsContext().eval("js", "a").asInt();
+        }));
+    }
+
+    @Test
+    public void microtaskCheckpointTest() throws InterruptedException {
+        var ec = new EContext(Context.newBuilder("js"));
+        ec.eval("""
+                globalThis.log = [];
+                setTimeout(() => {
+                    log.push('t1');
+                    Promise.resolve().then(() => log.push('p1'));
+                    queueMicrotask(() => log.push('m1'));
+                }, 0);
+                setTimeout(() => log.push('t2'), 0);
+                """);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals("t1,p1,m1,t2", ec.eval(() -> {
+            return ec.getJsContext().eval("js", "log.join()").asString();
+        }));
+    }
+
+    @Test
+    public void virtualThreadsTest() throws InterruptedException {
+        var builder = EContext.newBuilder(Context.newBuilder("js"))
+                .sharedEngine(true)
+                .virtualThreads(true);
+        var contexts = new ArrayList<EContext>();
+        for (int i = 0; i < 100; i++) {
+            var ec = builder.build();
+            ec.eval("globalThis.a = 0; setTimeout(() => {a = 1;}, 10)");
+            contexts.add(ec);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        for (var ec : contexts) {
+            assertTrue(ec.eval(() -> Thread.currentThread().isVirtual()));
+            assertEquals(1, ec.eval(() -> {
+                return ec.getJsContext().eval("js", "a").asInt();
+            }));
+        }
+    }
+
     @Test
     public void currentDirTest() throws IOException, URISyntaxException {
         var ec = new EContext(Context.newBuilder("js").allowIO(true));
@@ -63,6 +484,26 @@ public class EContextTest {
         assertEquals("hiya!\n", stdout.toString());
     }
 
+    @Test
+    public void sharedEngineWebworkerTest() throws IOException, InterruptedException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        var builder = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true)
+                .out(stdout))
+                .sharedEngine(true);
+        var ec = builder.build();
+        var ec2 = builder.build();
+        assertNotNull(ec.getEngine());
+        assertSame(ec.getEngine(), ec2.getEngine());
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("main.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        assertEquals("hiya!\n", stdout.toString());
+    }
+
     @Test
     public void webworkerTest2() throws InterruptedException, IOException {
         var ec = new EContext(Context.newBuilder("js")
@@ -79,6 +520,352 @@ public class EContextTest {
         System.out.println("");
     }
 
+    @Test
+    public void workerTerminateTest() throws InterruptedException, IOException {
+        var ec = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true))
+                .maxWorkers(1)
+                .prespawnedWorkers(1, Duration.ofMinutes(1))
+                .build();
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("worker_terminate_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertTrue(ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("limited").asBoolean();
+        }));
+        var ticks = ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("ticks").asInt();
+        });
+        assertTrue(ticks > 0);
+        assertEquals(ticks, ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("ticksAtTerminate").asInt();
+        }));
+        assertTrue(ec.isQuiescent());
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        var ec = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true))
+                .jmx(true)
+                .build();
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("main.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        ec.eval("setTimeout(() => {}, 10)");
+        TimeUnit.MILLISECONDS.sleep(500);
+        var metrics = ec.getMetrics();
+        assertTrue(metrics.tasks() >= 3);
+        assertEquals(metrics.tasks(), metrics.runTime().count());
+        assertEquals(1, metrics.timerLateness().count());
+        assertTrue(metrics.utilization() > 0 && metrics.utilization() <= 1);
+        assertEquals(1, metrics.workers().size());
+        var traffic = metrics.workers().values().iterator().next();
+        assertEquals(1, traffic.messagesSent());
+        assertEquals(1, traffic.messagesReceived());
+        assertTrue(traffic.bytesReceived() >= 10);
+        assertEquals(1, metrics.handlers().size());
+
+        var server = ManagementFactory.getPlatformMBeanServer();
+        var name = new ObjectName("net.coruscation.graaljs_event:type=EContext,id=" + ec.id);
+        assertEquals(metrics.tasks(), (long) server.getAttribute(name, "TaskCount"));
+        ec.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void workerMailboxTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("mailbox_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        var failures = ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("failures").asInt();
+        });
+        var received = ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("received").asInt();
+        });
+        assertTrue(failures > 0);
+        assertEquals(100, failures + received);
+    }
+
+    @Test
+    public void messageBatchingTest() throws InterruptedException, IOException {
+        var ec = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true))
+                .messageBatching(64)
+                .build();
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("batching_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        // posted in one task: 15 full batches and the rest when the task ends
+        assertEquals("16:499500", ec.eval(() -> {
+            return ec.getJsContext().eval("js", "`${result.batches}:${result.sum}`").asString();
+        }));
+    }
+
+    @Test
+    public void processWorkerTest() throws InterruptedException, IOException {
+        var ec = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true))
+                .workerJvmOptions(List.of("-Xmx256m"))
+                .build();
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("process_worker_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        assertTrue(ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("rejected").asBoolean();
+        }));
+        // the child JVM has to start first
+        for (int i = 0; i < 300 && !ec.isQuiescent(); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals("2,hello,3,1-2-3,0,true", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("result").asString();
+        }));
+        assertTrue(ec.isQuiescent());
+    }
+
+    @Test
+    public void processWorkerMailboxTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("process_mailbox_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        var bindings = ec.eval(() -> ec.getJsContext().getBindings("js"));
+        // the child JVMs have to start first
+        for (int i = 0; i < 300 && !ec.eval(() -> bindings.getMember("error").isString()
+                && bindings.getMember("failures").asInt() + bindings.getMember("received").asInt() == 100); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        // the parent fails messages the child has no room for
+        assertTrue(ec.eval(() -> bindings.getMember("failures").asInt()) > 0);
+        assertEquals(100, ec.eval(() -> bindings.getMember("failures").asInt()
+                + bindings.getMember("received").asInt()));
+        assertTrue(ec.eval(() -> bindings.getMember("error").asString()).contains("boom"));
+        ec.close();
+    }
+
+    @Test
+    public void processWorkerUnsupportedTest() {
+        // the child would silently run without them
+        assertThrows(IllegalStateException.class, () -> EContext.newBuilder(Context.newBuilder("js"))
+                .workerTransport(EContext.WorkerTransport.PROCESS)
+                .maxTaskDuration(Duration.ofSeconds(1))
+                .build());
+        var ec = EContext.newBuilder(Context.newBuilder("js").allowIO(true))
+                .asyncIO(true)
+                .build();
+        var error = ec.eval(() -> {
+            try {
+                ec.getJsContext().eval("js", "new Worker('worker.js', { transport: 'process' })");
+                return null;
+            } catch (PolyglotException e) {
+                return e.getMessage();
+            }
+        });
+        assertTrue(error.contains("asyncIO"), error);
+        assertTrue(ec.isQuiescent());
+        ec.close();
+    }
+
+    @Test
+    public void taskDurationLimitTest() throws InterruptedException, ExecutionException, TimeoutException {
+        var violation = new CompletableFuture<ResourceViolation>();
+        var ec = EContext.newBuilder(Context.newBuilder("js"))
+                .maxTaskDuration(Duration.ofMillis(100))
+                .onResourceViolation(violation::complete)
+                .build();
+        ec.eval("setTimeout(() => { while (true) {} }, 0)");
+        assertEquals(ResourceViolation.Kind.TASK_DURATION, violation.get(5, TimeUnit.SECONDS).kind());
+        assertSame(ec, violation.get().context());
+        ec.whenTerminated().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void statementLimitTest() throws InterruptedException, ExecutionException, TimeoutException {
+        var violation = new CompletableFuture<ResourceViolation>();
+        var ec = EContext.newBuilder(Context.newBuilder("js"))
+                .statementLimit(100_000)
+                .onResourceViolation(violation::complete)
+                .build();
+        // the count is reset before every task
+        for (int i = 0; i < 3; i++) {
+            ec.eval("for (let i = 0; i < 20000; i++) {}");
+        }
+        assertNull(ec.getResourceViolation());
+        assertThrows(RuntimeException.class, () -> ec.eval("for (;;) {}"));
+        assertEquals(ResourceViolation.Kind.STATEMENTS, violation.get(5, TimeUnit.SECONDS).kind());
+        ec.whenTerminated().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void prespawnedWorkersTest() throws InterruptedException {
+        var builder = EContext.newBuilder(Context.newBuilder("js"))
+                .prespawnedWorkers(2, Duration.ofMinutes(1));
+        var ec = builder.build();
+        for (int i = 0; i < 100 && builder.getWorkerMetrics().idle() < 2; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(2, builder.getWorkerMetrics().idle());
+        ec.close();
+        // shuts down the prespawned contexts
+        builder.close();
+        assertNull(builder.getWorkerMetrics());
+    }
+
+    @Test
+    public void engineCacheTest() throws IOException {
+        var cache = Files.createTempDirectory("engine-cache").resolve("js.cache");
+        var builder = EContext.newBuilder(Context.newBuilder("js"))
+                .engineCache(cache);
+        var ec = builder.build();
+        var sum = ec.eval("1 + 1");
+        assertEquals(2, ec.eval(() -> sum.asInt()));
+        ec.close();
+        // false where the runtime has no engine caching, but never throws
+        if (builder.storeEngineCache()) {
+            assertTrue(Files.isRegularFile(cache));
+        }
+        builder.close();
+    }
+
+    @Test
+    public void workerLimitTest() throws InterruptedException, IOException {
+        var ec = EContext.newBuilder(Context.newBuilder("js")
+                .allowIO(true))
+                .maxTaskDuration(Duration.ofMillis(200))
+                .build();
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("limits_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        assertEquals("error", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("result").asString();
+        }));
+        assertNull(ec.getResourceViolation());
+        assertTrue(ec.isQuiescent());
+    }
+
+    @Test
+    public void messageChannelTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("message_channel_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        assertEquals("received 100", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("result").asString();
+        }));
+        // both ports were transferred away
+        assertTrue(ec.eval(() -> ec.ports.isEmpty()));
+    }
+
+    @Test
+    public void streamChannelTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("stream_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        // the worker has to start and stream everything first
+        for (int i = 0; i < 300 && !ec.eval(() -> ec.getJsContext().getBindings("js").hasMember("result")); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals("10000,true,true,true", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("result").asString();
+        }));
+        // read to the end, and the writable end went to the worker
+        assertTrue(ec.eval(() -> ec.streams.isEmpty()));
+    }
+
+    @Test
+    public void structuredCloneTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("structured_clone_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        var bindings = ec.eval(() -> ec.getJsContext().getBindings("js"));
+        for (int i = 0; i < 300 && ec.eval(() -> bindings.getMember("result").isNull()); i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals("img,true,256,true", ec.eval(() -> {
+            return ec.getJsContext().eval("js", "Object.values(globalThis.result).join()").asString();
+        }));
+        assertEquals(0, ec.eval(() -> bindings.getMember("senderLength").asInt()));
+    }
+
+    @Test
+    public void sharedArrayBufferTest() throws InterruptedException, IOException {
+        var ec = new EContext(Context.newBuilder("js")
+                .allowIO(true)
+                .allowHostAccess(HostAccess.newBuilder().allowBufferAccess(true).build()));
+        ec.eval(Source.newBuilder("js", this.getClass()
+                .getClassLoader()
+                .getResource("shared_memory_test.js"))
+                .mimeType("application/javascript+module")
+                .build());
+        TimeUnit.MILLISECONDS.sleep(1000);
+        assertEquals("ok:2000:true", ec.eval(() -> {
+            return ec.getJsContext().getBindings("js").getMember("result").asString();
+        }));
+    }
+
+    @Test
+    public void nativeSharedArrayBufferTest() {
+        // without host buffer access SharedArrayBuffer stays the native one
+        var ec = new EContext(Context.newBuilder("js"));
+        assertEquals(8, ec.eval(() -> ec.getJsContext()
+                .eval("js", "const b = new SharedArrayBuffer(8); Atomics.add(new Int32Array(b), 0, 1); b.byteLength")
+                .asInt()));
+        ec.shutdown();
+    }
+
+    @Test
+    public void evalAsyncPromiseTest() throws InterruptedException, ExecutionException, TimeoutException {
+        var ec = new EContext(Context.newBuilder("js"));
+        assertEquals(3, ec.evalAsync("1 + 2", Value::asInt).get(1, TimeUnit.SECONDS));
+
+        var resolved = ec.evalAsync("new Promise(resolve => setTimeout(() => resolve('done'), 50))",
+                Value::asString);
+        assertEquals("done", resolved.get(1, TimeUnit.SECONDS));
+
+        var rejected = ec.evalAsync("Promise.reject(new Error('boom'))", Value::asString);
+        var e = assertThrows(ExecutionException.class, () -> rejected.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(PolyglotException.class, e.getCause());
+
+        var rejectedWithString = ec.evalAsync("Promise.reject('nope')", Value::asString);
+        e = assertThrows(ExecutionException.class, () -> rejectedWithString.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(EContext.PromiseRejectedException.class, e.getCause());
+    }
+
     @Test
     public void webworkerIllegalStateCheckTest() throws ExecutionException, InterruptedException {
         var ec = new EContext(Context.newBuilder("js"));
@@ -0,0 +1,61 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class HashedWheelTimersTest {
+
+    @Test
+    public void fireInOrderAndCancelTest() throws InterruptedException, ExecutionException {
+        var executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            // a small wheel so that some timers need more than one revolution
+            var timers = new HashedWheelTimers(executor, Runnable::run, TimeUnit.MILLISECONDS.toNanos(1), 8);
+            List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+            executor.submit(() -> {
+                // well apart, so a late tick can not reorder them
+                timers.schedule(() -> fired.add(150), TimeUnit.MILLISECONDS.toNanos(150));
+                timers.schedule(() -> fired.add(50), TimeUnit.MILLISECONDS.toNanos(50));
+                timers.schedule(() -> fired.add(0), 0);
+                var cancelled = timers.schedule(() -> fired.add(-1), TimeUnit.MILLISECONDS.toNanos(100));
+                assertTrue(cancelled.cancel());
+                assertFalse(cancelled.cancel());
+                assertEquals(3, timers.pending());
+            }).get();
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (fired.size() < 3 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+            assertEquals(List.of(0, 50, 150), fired);
+            assertEquals(0, executor.submit(timers::pending).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void neverFireEarlyTest() throws InterruptedException, ExecutionException {
+        var executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            var timers = new HashedWheelTimers(executor, Runnable::run, TimeUnit.MILLISECONDS.toNanos(10), 4);
+            var start = System.nanoTime();
+            long[] firedAt = { 0 };
+            executor.submit(() -> {
+                timers.schedule(() -> firedAt[0] = System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(55));
+            }).get();
+            TimeUnit.MILLISECONDS.sleep(200);
+            assertTrue(firedAt[0] - start >= TimeUnit.MILLISECONDS.toNanos(55));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+public class MailboxTest {
+
+    @Test
+    public void overflowPoliciesTest() throws InterruptedException {
+        var dropOldest = new Mailbox("a", Mailbox.Config.bounded(2, Mailbox.Policy.DROP_OLDEST));
+        assertTrue(dropOldest.offer(1, false));
+        assertFalse(dropOldest.offer(2, false));
+        assertFalse(dropOldest.offer(3, false));
+        assertEquals(2, dropOldest.poll());
+        assertEquals(3, dropOldest.poll());
+        assertSame(Mailbox.EMPTY, dropOldest.poll());
+        assertEquals(1, dropOldest.dropped());
+
+        var dropNewest = new Mailbox("b", Mailbox.Config.bounded(2, Mailbox.Policy.DROP_NEWEST));
+        dropNewest.offer(1, false);
+        dropNewest.offer(2, false);
+        dropNewest.offer(3, false);
+        assertEquals(1, dropNewest.poll());
+        assertEquals(2, dropNewest.poll());
+        assertEquals(1, dropNewest.dropped());
+
+        var fail = new Mailbox("c", Mailbox.Config.bounded(1, Mailbox.Policy.FAIL));
+        fail.offer(null, false);
+        assertThrows(Mailbox.MailboxFullException.class, () -> fail.offer(2, false));
+        assertNull(fail.poll());
+
+        var block = new Mailbox("d", Mailbox.Config.bounded(1, Mailbox.Policy.BLOCK));
+        block.offer(1, false);
+        // the receiving loop itself must not wait for room
+        assertThrows(Mailbox.MailboxFullException.class, () -> block.offer(2, true));
+    }
+
+    @Test
+    public void blockUntilPolledTest() throws Exception {
+        var mailbox = new Mailbox("a", Mailbox.Config.bounded(1, Mailbox.Policy.BLOCK));
+        mailbox.offer(1, false);
+        var producer = CompletableFuture.runAsync(() -> {
+            try {
+                mailbox.offer(2, false);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> producer.get(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, mailbox.poll());
+        producer.get(1, TimeUnit.SECONDS);
+        assertEquals(2, mailbox.poll());
+    }
+
+    @Test
+    public void watermarksAndDeliveryTest() throws InterruptedException {
+        List<String> signals = new ArrayList<>();
+        var config = Mailbox.Config.bounded(10, Mailbox.Policy.FAIL)
+                .withWatermarks(3, 1, (key, size, high) -> signals.add(key + ":" + size + ":" + high));
+        var mailbox = new Mailbox("w", config);
+        assertTrue(mailbox.offer(1, false));
+        assertFalse(mailbox.offer(2, false));
+        assertFalse(mailbox.offer(3, false));
+        mailbox.offer(4, false);
+        assertEquals(List.of("w:3:true"), signals);
+        mailbox.poll();
+        mailbox.poll();
+        assertTrue(mailbox.rescheduleDelivery());
+        mailbox.poll();
+        assertEquals(List.of("w:3:true", "w:1:false"), signals);
+        mailbox.poll();
+        assertFalse(mailbox.rescheduleDelivery());
+        // idle again, the next message needs a new delivery task
+        assertTrue(mailbox.offer(5, false));
+    }
+}
@@ -0,0 +1,37 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+public class SourceCacheTest {
+
+    @Test
+    public void contentHashTest() throws IOException {
+        var file = Files.createTempFile("source_cache", ".js");
+        try {
+            Files.writeString(file, "postMessage(1)");
+            var source = SourceCache.get(file, false);
+            assertSame(source, SourceCache.get(file, false));
+            assertNotSame(source, SourceCache.get(file, true));
+
+            // touched, but the same content
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(60)));
+            assertSame(source, SourceCache.get(file, false));
+
+            Files.writeString(file, "postMessage(2)");
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(120)));
+            var changed = SourceCache.get(file, false);
+            assertNotSame(source, changed);
+            assertEquals("postMessage(2)", changed.getCharacters().toString());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        assertThrows(RuntimeException.class, () -> SourceCache.get(file, false));
+    }
+}
@@ -0,0 +1,66 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class WireFormatTest {
+
+    @Test
+    public void roundTripTest() throws IOException {
+        var buffer = new StructuredClone.BufferNode(ByteBuffer.allocateDirect(4).put(new byte[] { 1, 2, 3, 4 }).flip());
+        var object = new StructuredClone.ObjectNode();
+        var array = new StructuredClone.ArrayNode(6);
+        array.elements.add(null);
+        array.elements.add(StructuredClone.Undefined.INSTANCE);
+        array.elements.add(true);
+        array.elements.add(42);
+        array.elements.add(0.5);
+        array.elements.add("été");
+        object.members.put("array", array);
+        object.members.put("bytes", new StructuredClone.TypedArrayNode("Uint8Array", buffer, 1, 2));
+        object.members.put("view", new StructuredClone.TypedArrayNode("DataView", buffer, 0, 4));
+        object.members.put("date", new StructuredClone.DateNode(1000));
+        object.members.put("self", object);
+
+        var message = WireFormat.decode(WireFormat.encode(
+                new StructuredClone.Message(object, 123, 0, List.of())));
+        assertEquals(123, message.timeStamp());
+        var copy = (StructuredClone.ObjectNode) message.data();
+        assertSame(copy, copy.members.get("self"));
+        assertEquals(Arrays.asList(null, StructuredClone.Undefined.INSTANCE, true, 42, 0.5, "été"),
+                ((StructuredClone.ArrayNode) copy.members.get("array")).elements);
+        var bytes = (StructuredClone.TypedArrayNode) copy.members.get("bytes");
+        var view = (StructuredClone.TypedArrayNode) copy.members.get("view");
+        assertEquals("Uint8Array", bytes.type());
+        assertEquals(1, bytes.byteOffset());
+        assertEquals(2, bytes.length());
+        // both views still share one buffer
+        assertSame(bytes.buffer(), view.buffer());
+        var copied = ((StructuredClone.BufferNode) bytes.buffer()).buffer;
+        assertTrue(copied.isDirect());
+        assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), copied);
+        assertEquals(1000, ((StructuredClone.DateNode) copy.members.get("date")).time());
+    }
+
+    @Test
+    public void helloTest() throws IOException {
+        var hello = new WireFormat.Hello("/tmp/worker.js", true, Mailbox.Config.bounded(8, Mailbox.Policy.DROP_OLDEST));
+        assertEquals(hello, WireFormat.decodeHello(WireFormat.encode(hello)));
+        var unbounded = new WireFormat.Hello("/tmp/worker.js", false, null);
+        assertEquals(unbounded, WireFormat.decodeHello(WireFormat.encode(unbounded)));
+    }
+
+    @Test
+    public void sharedMemoryRejectedTest() {
+        var array = new StructuredClone.ArrayNode(1);
+        array.elements.add(new StructuredClone.SharedNode(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> WireFormat.encode(new StructuredClone.Message(array, 0, 0, List.of())));
+    }
+}
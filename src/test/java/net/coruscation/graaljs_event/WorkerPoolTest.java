@@ -0,0 +1,69 @@
+package net.coruscation.graaljs_event;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.junit.jupiter.api.Test;
+
+public class WorkerPoolTest {
+
+    private static final Source SCRIPT = Source.create("js", """
+            function square(x) {
+                // the first inputs take far longer, the others get stolen meanwhile
+                const end = Date.now() + (x < 4 ? 100 : 0);
+                while (Date.now() < end) {}
+                return x * x;
+            }
+            async function later(x) {
+                await new Promise(resolve => setTimeout(resolve, 1));
+                return { x };
+            }
+            function fail(x) {
+                if (x === 2) {
+                    throw new Error('failed on ' + x);
+                }
+                return x;
+            }
+            async function reject(x) {
+                await null;
+                if (x === 1) {
+                    throw new Error('rejected ' + x);
+                }
+                return x;
+            }
+            """);
+
+    @Test
+    public void mapTest() {
+        try (var pool = WorkerPool.create(EContext.newBuilder(Context.newBuilder("js")).sharedEngine(true), 4)) {
+            var inputs = IntStream.range(0, 200).boxed().toList();
+            assertEquals(inputs.stream().map(x -> x * x).toList(),
+                    pool.map(SCRIPT, "square", inputs).toList());
+            assertEquals(List.of("{\"x\":1}", "{\"x\":2}", "{\"x\":3}"),
+                    pool.map(SCRIPT, "later", List.of(1, 2, 3)).toList());
+        }
+    }
+
+    @Test
+    public void mapErrorTest() {
+        try (var pool = WorkerPool.create(EContext.newBuilder(Context.newBuilder("js")).sharedEngine(true), 2)) {
+            var results = pool.map(SCRIPT, "fail", List.of(0, 1, 2, 3)).iterator();
+            assertEquals(0, results.next());
+            assertEquals(1, results.next());
+            var e = assertThrows(PolyglotException.class, results::next);
+            assertTrue(e.getMessage().contains("failed on 2"));
+            assertEquals(3, results.next());
+            // a rejected promise surfaces like a throw
+            var rejected = pool.map(SCRIPT, "reject", List.of(0, 1, 2)).iterator();
+            assertEquals(0, rejected.next());
+            e = assertThrows(PolyglotException.class, rejected::next);
+            assertTrue(e.getMessage().contains("rejected 1"));
+            assertEquals(2, rejected.next());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+const worker = new Worker(import.meta.url + '/../batching_worker.js');
+
+worker.onmessage = (e => {
+    globalThis.result = e.data;
+})
+
+for (let i = 0; i < 1000; i++) {
+    worker.postMessage(i);
+}
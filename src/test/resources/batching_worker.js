@@ -0,0 +1,14 @@
+let batches = 0;
+let sum = 0;
+let count = 0;
+
+self.onmessages = (events => {
+    batches++;
+    for (const e of events) {
+        sum += e.data;
+        count++;
+    }
+    if (count === 1000) {
+        postMessage({ batches, sum });
+    }
+})
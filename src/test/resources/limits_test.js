@@ -0,0 +1,5 @@
+const worker = new Worker(import.meta.url + '/../limits_worker.js');
+
+worker.onerror = (e => {
+    globalThis.result = e.type;
+})
@@ -0,0 +1,19 @@
+const worker = new Worker(import.meta.url + '/../mailbox_worker.js',
+                          { mailbox: { capacity: 1, overflow: 'fail' } });
+
+globalThis.failures = 0;
+globalThis.received = 0;
+
+worker.onmessage = (e => {
+    globalThis.received++;
+})
+
+for (let i = 0; i < 100; i++) {
+    try {
+        worker.postMessage(i);
+    } catch (e) {
+        if (e instanceof Error && e.message.includes('is full')) {
+            globalThis.failures++;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+self.onmessage = (e => {
+    // a slow consumer
+    const end = Date.now() + 20;
+    while (Date.now() < end) {
+    }
+    postMessage(e.data);
+})
@@ -0,0 +1,10 @@
+const channel = new MessageChannel();
+const ping = new Worker(import.meta.url + '/../message_channel_worker.js');
+const pong = new Worker(import.meta.url + '/../message_channel_worker.js');
+
+ping.onmessage = (e => {
+    globalThis.result = e.data;
+})
+
+ping.postMessage({ role: 'ping', port: channel.port1 }, [channel.port1]);
+pong.postMessage('pong', [channel.port2]);
@@ -0,0 +1,26 @@
+self.onmessage = (e => {
+    // the port comes either inside the data or only in e.ports
+    const role = typeof e.data === 'string' ? e.data : e.data.role;
+    const port = e.ports[0];
+    if (role === 'ping') {
+        if (port !== e.data.port) {
+            postMessage('port mismatch');
+            return;
+        }
+        let count = 0;
+        port.onmessage = (m => {
+            count++;
+            if (m.data === 'pong:99') {
+                postMessage('received ' + count);
+                port.close();
+            }
+        });
+        for (let i = 0; i < 100; i++) {
+            port.postMessage('ping:' + i);
+        }
+    } else {
+        port.onmessage = (m => {
+            port.postMessage(m.data.replace('ping', 'pong'));
+        });
+    }
+})
@@ -0,0 +1,4 @@
+self.onmessage = (e => {
+    e.data.n++;
+    self.postMessage(e.data);
+})
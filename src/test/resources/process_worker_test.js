@@ -0,0 +1,21 @@
+const worker = new Worker(import.meta.url + '/../process_worker.js', { type: 'module', transport: 'process' });
+
+const data = { n: 1, s: 'hello', list: [1.5, null, undefined], bytes: new Uint8Array([1, 2, 3]), when: new Date(0) };
+data.self = data;
+
+worker.onmessage = (e => {
+    const d = e.data;
+    globalThis.result = [d.n, d.s, d.list.length, d.bytes.join('-'), d.when.getTime(), d.self === d].join();
+    worker.terminate();
+})
+
+worker.postMessage(data);
+
+// ports can not leave the process
+const channel = new MessageChannel();
+globalThis.rejected = false;
+try {
+    worker.postMessage(channel.port1, [channel.port1]);
+} catch (e) {
+    globalThis.rejected = true;
+}
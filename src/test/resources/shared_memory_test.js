@@ -0,0 +1,21 @@
+const worker = new Worker(import.meta.url + '/../shared_memory_worker.js');
+
+const shared = new SharedArrayBuffer(8);
+const ia = new Int32Array(shared);
+
+globalThis.result = null;
+
+worker.onmessage = (e => {
+    globalThis.result = e.data + ':' + Atomics.load(ia, 0) + ':' + (shared instanceof SharedArrayBuffer);
+});
+
+worker.postMessage(shared);
+
+for (let i = 0; i < 1000; i++) {
+    Atomics.add(ia, 0, 1);
+}
+
+setTimeout(() => {
+    Atomics.store(ia, 1, 1);
+    Atomics.notify(ia, 1);
+}, 100);
@@ -0,0 +1,8 @@
+self.onmessage = (e => {
+    const ia = new Int32Array(e.data);
+    const woken = Atomics.wait(ia, 1, 0, 5000);
+    for (let i = 0; i < 1000; i++) {
+        Atomics.add(ia, 0, 1);
+    }
+    postMessage(woken);
+})
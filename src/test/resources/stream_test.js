@@ -0,0 +1,34 @@
+const channel = new StreamChannel({ highWaterMark: 4096 });
+const worker = new Worker(import.meta.url + '/../stream_worker.js');
+
+let producerDone = false;
+worker.onmessage = (e => {
+    producerDone = true;
+})
+
+worker.postMessage(channel.writable, [channel.writable]);
+
+const reader = channel.readable.getReader({ encoding: 'utf-8' });
+let lines = 0;
+let intact = true;
+let rest = '';
+let longestChunk = 0;
+let firstBeforeDone = null;
+while (true) {
+    const { value, done } = await reader.read();
+    if (done) {
+        break;
+    }
+    if (firstBeforeDone === null) {
+        firstBeforeDone = !producerDone;
+    }
+    longestChunk = Math.max(longestChunk, value.length);
+    const parts = (rest + value).split('\n');
+    rest = parts.pop();
+    for (const line of parts) {
+        lines++;
+        intact = intact && line === 'é€😀 line';
+    }
+}
+
+globalThis.result = [lines, intact && rest === '', longestChunk <= 4096, firstBeforeDone].join();
@@ -0,0 +1,8 @@
+self.onmessage = (async e => {
+    const writer = e.data.getWriter();
+    for (let i = 0; i < 10000; i++) {
+        await writer.write('é€😀 line\n');
+    }
+    await writer.close();
+    postMessage('done');
+})
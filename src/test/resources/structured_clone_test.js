@@ -0,0 +1,19 @@
+const worker = new Worker(import.meta.url + '/../structured_clone_worker.js');
+
+globalThis.result = null;
+
+worker.onmessage = (e => {
+    globalThis.result = e.data;
+});
+
+const bytes = new Uint8Array([1, 2, 3, 250]);
+const msg = {
+    name: 'img',
+    nested: { list: [1, 'two', null, undefined] },
+    bytes: bytes
+};
+msg.self = msg;
+
+worker.postMessage(msg, [bytes.buffer]);
+// detached from the sender
+globalThis.senderLength = bytes.buffer.byteLength;
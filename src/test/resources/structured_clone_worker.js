@@ -0,0 +1,9 @@
+self.onmessage = (e => {
+    const d = e.data;
+    postMessage({
+        name: d.name,
+        cyclic: d.self === d,
+        sum: d.bytes.reduce((a, b) => a + b, 0),
+        undef: d.nested.list.length === 4 && d.nested.list[3] === undefined
+    });
+})
@@ -0,0 +1,22 @@
+const url = import.meta.url + '/../worker_terminate_worker.js';
+const worker = new Worker(url);
+
+globalThis.ticks = 0;
+globalThis.limited = false;
+
+worker.onmessage = (e => {
+    globalThis.ticks++;
+})
+
+try {
+    new Worker(url);
+} catch (e) {
+    globalThis.limited = true;
+}
+
+setTimeout(() => {
+    worker.terminate();
+    globalThis.ticksAtTerminate = globalThis.ticks;
+    // the terminated worker's slot can be used again
+    new Worker(url).terminate();
+}, 200);
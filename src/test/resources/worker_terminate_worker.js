@@ -0,0 +1,6 @@
+function tick() {
+    self.postMessage("tick");
+    setTimeout(tick, 5);
+}
+
+tick();